@@ -0,0 +1,245 @@
+package com.example.splitwise;
+
+import com.example.splitwise.service.CommitWatch;
+import com.example.splitwise.service.IdempotencyService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * Honors an Idempotency-Key header on mutating /api requests of authenticated users.
+ *
+ * The first request with a key runs normally and its response is stored; a retry with
+ * the same key and the same request gets that response back (with Idempotent-Replayed:
+ * true) without reaching the controller. Reusing a key for a different request is a 422,
+ * a retry while the first one is still running is a 409. A server error is not stored,
+ * so the key can be retried, unless a write committed before it: then running the request
+ * again would repeat the write, and the error is what retries get.
+ */
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final String PENDING = IdempotencyFilter.class.getName() + ".PENDING";
+    private static final Set<String> MUTATING = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    private final IdempotencyService idempotencyService;
+
+    public IdempotencyFilter(IdempotencyService idempotencyService) {
+        this.idempotencyService = idempotencyService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest req) {
+        return req.getHeader(HEADER) == null
+                || !MUTATING.contains(req.getMethod())
+                || !req.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
+            throws ServletException, IOException {
+
+        if (isAsyncDispatch(req)) {
+            Pending pending = (Pending) req.getAttribute(PENDING);
+            if (pending != null) finishAsync(req, res, chain, pending);
+            else chain.doFilter(req, res);
+            return;
+        }
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth == null || !auth.isAuthenticated() || auth instanceof AnonymousAuthenticationToken) {
+            // the request is about to be rejected anyway; don't let anonymous callers claim keys
+            chain.doFilter(req, res);
+            return;
+        }
+
+        String key = req.getHeader(HEADER);
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            writeError(res, HttpStatus.BAD_REQUEST, "Invalid Idempotency-Key");
+            return;
+        }
+
+        byte[] body = req.getInputStream().readAllBytes();
+        String scopeKey = sha256(auth.getName() + "\n" + key);
+        String fingerprint = sha256(req.getMethod() + " " + req.getRequestURI() + "?"
+                + (req.getQueryString() != null ? req.getQueryString() : "") + "\n", body);
+
+        IdempotencyService.Claim claim = idempotencyService.begin(scopeKey, fingerprint);
+        switch (claim.state()) {
+            case REPLAY -> {
+                IdempotencyService.StoredResponse stored = claim.response();
+                res.setStatus(stored.status());
+                if (stored.contentType() != null) res.setContentType(stored.contentType());
+                res.setHeader("Idempotent-Replayed", "true");
+                if (stored.body() != null) res.getOutputStream().write(stored.body());
+                return;
+            }
+            case MISMATCH -> {
+                writeError(res, HttpStatus.UNPROCESSABLE_CONTENT, "Idempotency-Key was already used for a different request");
+                return;
+            }
+            case IN_FLIGHT -> {
+                writeError(res, HttpStatus.CONFLICT, "A request with this Idempotency-Key is still in progress");
+                return;
+            }
+            case ACQUIRED -> {
+                // fall through and run the request
+            }
+        }
+
+        ContentCachingResponseWrapper wrapped = new ContentCachingResponseWrapper(res);
+        CommitWatch.Watch watch = idempotencyService.watchCommits();
+        Pending pending = new Pending(scopeKey, fingerprint, wrapped, watch);
+        try {
+            chain.doFilter(new CachedBodyRequest(req, body), wrapped);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            if (!idempotencyService.unwatchCommits()) idempotencyService.release(scopeKey);
+            wrapped.copyBodyToResponse();
+            throw ex;
+        }
+        finish(req, pending, idempotencyService.unwatchCommits());
+    }
+
+    /**
+     * Async handlers (the password hashing ones) return before their response exists; this
+     * filter runs again on the async dispatch that writes it, and finishes the key there.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    private void finishAsync(HttpServletRequest req, HttpServletResponse res, FilterChain chain, Pending pending)
+            throws ServletException, IOException {
+        req.removeAttribute(PENDING);
+        try {
+            chain.doFilter(req, res);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            if (!pending.watch().committed()) idempotencyService.release(pending.scopeKey());
+            pending.response().copyBodyToResponse();
+            throw ex;
+        }
+        finish(req, pending, pending.watch().committed());
+    }
+
+    private void finish(HttpServletRequest req, Pending pending, boolean committed) throws IOException {
+        if (req.isAsyncStarted()) {
+            // nothing has been written yet: keep the body cached until the async dispatch
+            req.setAttribute(PENDING, pending);
+            return;
+        }
+        ContentCachingResponseWrapper wrapped = pending.response();
+        try {
+            int status = wrapped.getStatus();
+            if (status < 500 || committed) {
+                idempotencyService.complete(pending.scopeKey(), pending.fingerprint(), status,
+                        wrapped.getContentType(), wrapped.getContentAsByteArray());
+            } else {
+                idempotencyService.release(pending.scopeKey());
+            }
+        } finally {
+            wrapped.copyBodyToResponse();
+        }
+    }
+
+    private record Pending(String scopeKey, String fingerprint, ContentCachingResponseWrapper response,
+                           CommitWatch.Watch watch) {
+    }
+
+    private static void writeError(HttpServletResponse res, HttpStatus status, String message) throws IOException {
+        res.setStatus(status.value());
+        res.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        res.getWriter().write("{\"error\":\"" + message + "\"}");
+    }
+
+    private static String sha256(String text) {
+        return sha256(text, new byte[0]);
+    }
+
+    private static String sha256(String prefix, byte[] body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(prefix.getBytes(StandardCharsets.UTF_8));
+            md.update(body);
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The body has been read for the fingerprint; hand the same bytes to the controller.
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest req, byte[] body) {
+            super(req);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    // the whole body is in memory: it is available, and then all read, right away
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException ex) {
+                        listener.onError(ex);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String enc = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.UTF_8.name();
+            return new BufferedReader(new InputStreamReader(getInputStream(), java.nio.charset.Charset.forName(enc)));
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.splitwise;
 
-import com.example.splitwise.service.JwtService;
-import com.example.splitwise.service.MyUserDetailsService;
+import com.example.splitwise.service.VerifiedTokenCache;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
@@ -15,36 +14,29 @@ import java.io.IOException;
 
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
-    private final JwtService jwtService;
-    private final MyUserDetailsService userDetailsService;
+    static final String STREAM_PATH = "/api/stream";
 
-    public JwtAuthenticationFilter(JwtService jwtService, MyUserDetailsService userDetailsService) {
-        this.jwtService = jwtService;
-        this.userDetailsService = userDetailsService;
+    private final VerifiedTokenCache tokenCache;
+
+    public JwtAuthenticationFilter(VerifiedTokenCache tokenCache) {
+        this.tokenCache = tokenCache;
     }
 
     @Override
     protected void doFilterInternal(HttpServletRequest req, HttpServletResponse res, FilterChain chain)
             throws ServletException, IOException {
 
-        final String authHeader = req.getHeader("Authorization");
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            chain.doFilter(req, res);
-            return;
-        }
-
-        final String token = authHeader.substring(7);
-        String username;
-        try {
-            username = jwtService.extractUsername(token);
-        } catch (Exception e) {
+        final String token = bearerToken(req);
+        final String ticket = token == null ? streamTicket(req) : null;
+        if (token == null && ticket == null) {
             chain.doFilter(req, res);
             return;
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails ud = userDetailsService.loadUserByUsername(username);
-            if (jwtService.isTokenValid(token, ud.getUsername())) {
+        if (SecurityContextHolder.getContext().getAuthentication() == null) {
+            // verified once per token, then served from the cache until the token expires
+            UserDetails ud = token != null ? tokenCache.authenticate(token) : tokenCache.authenticateStreamTicket(ticket);
+            if (ud != null) {
                 UsernamePasswordAuthenticationToken auth =
                         new UsernamePasswordAuthenticationToken(ud, null, ud.getAuthorities());
                 auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(req));
@@ -54,4 +46,19 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         chain.doFilter(req, res);
     }
+
+    private static String bearerToken(HttpServletRequest req) {
+        final String authHeader = req.getHeader("Authorization");
+        if (authHeader != null && authHeader.startsWith("Bearer ")) return authHeader.substring(7);
+        return null;
+    }
+
+    // EventSource cannot set headers, so the update stream alone takes ?access_token=, and only a
+    // short-lived stream ticket there: a URL ends up in access logs and browser history
+    private static String streamTicket(HttpServletRequest req) {
+        if (STREAM_PATH.equals(req.getRequestURI()) && "GET".equals(req.getMethod())) {
+            return req.getParameter("access_token");
+        }
+        return null;
+    }
 }
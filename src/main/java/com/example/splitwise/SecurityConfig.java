@@ -2,6 +2,8 @@ package com.example.splitwise;
 
 import java.util.List;
 
+import jakarta.servlet.DispatcherType;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -20,27 +22,27 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
-import com.example.splitwise.service.JwtService;
-import com.example.splitwise.service.MyUserDetailsService;
+import com.example.splitwise.service.IdempotencyService;
+import com.example.splitwise.service.VerifiedTokenCache;
 
 @Configuration
 public class SecurityConfig {
 
-    private final JwtService jwtService;
-    private final MyUserDetailsService userDetailsService;
+    private final VerifiedTokenCache tokenCache;
+    private final IdempotencyService idempotencyService;
     private final String frontendOrigin;
 
-    public SecurityConfig(JwtService jwtService,
-            MyUserDetailsService userDetailsService,
+    public SecurityConfig(VerifiedTokenCache tokenCache,
+            IdempotencyService idempotencyService,
             @Value("${app.frontend.url:https://spliteaseapp.atul.codes}") String frontendOrigin) {
-        this.jwtService = jwtService;
-        this.userDetailsService = userDetailsService;
+        this.tokenCache = tokenCache;
+        this.idempotencyService = idempotencyService;
         this.frontendOrigin = frontendOrigin;
     }
 
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
-        JwtAuthenticationFilter jwtFilter = new JwtAuthenticationFilter(jwtService, userDetailsService);
+        JwtAuthenticationFilter jwtFilter = new JwtAuthenticationFilter(tokenCache);
 
         // Configure CSRF token handler for SPA compatibility
         CsrfTokenRequestAttributeHandler requestHandler = new CsrfTokenRequestAttributeHandler();
@@ -64,6 +66,8 @@ public class SecurityConfig {
                 )
                 // Authorize requests using lambda style
                 .authorizeHttpRequests(auth -> auth
+                // async re-dispatch of an already authorized request (streamed responses)
+                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                 // public endpoints
                 .requestMatchers("/api/auth/**", "/api/users/ping", "/h2-console/**").permitAll()
                 // Actuator endpoints - allow all for monitoring
@@ -81,6 +85,8 @@ public class SecurityConfig {
 
         // add JWT filter before username/password filter
         http.addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
+        // Idempotency-Key handling needs the authenticated principal to scope keys
+        http.addFilterAfter(new IdempotencyFilter(idempotencyService), UsernamePasswordAuthenticationFilter.class);
 
         // allow frames (H2 console) in dev
         http.headers(headers -> headers.frameOptions(frame -> frame.disable()));
@@ -115,7 +121,7 @@ public class SecurityConfig {
         ));
         conf.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
         conf.setAllowedHeaders(List.of("*")); // Allow all headers for Swagger compatibility
-        conf.setExposedHeaders(List.of("Authorization", "Content-Type", "X-XSRF-TOKEN")); // headers that frontend can read
+        conf.setExposedHeaders(List.of("Authorization", "Content-Type", "X-XSRF-TOKEN", "Idempotent-Replayed", "X-Next-Cursor", "ETag")); // headers that frontend can read
         conf.setAllowCredentials(true); // required for allowedOriginPatterns
         conf.setMaxAge(3600L);
         UrlBasedCorsConfigurationSource src = new UrlBasedCorsConfigurationSource();
@@ -1,12 +1,10 @@
 package com.example.splitwise.controllers;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -15,6 +13,7 @@ import org.springframework.web.bind.annotation.RestController;
 import com.example.splitwise.model.User;
 import com.example.splitwise.repo.UserRepo;
 import com.example.splitwise.service.JwtService;
+import com.example.splitwise.service.PasswordHashingService;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -28,17 +27,17 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 @Tag(name = "Authentication", description = "Public endpoints for user registration and authentication")
 public class AuthController {
 
-    private final AuthenticationManager authManager;
     private final UserRepo userRepo;
-    private final PasswordEncoder encoder;
+    private final PasswordHashingService hashing;
     private final JwtService jwt;
+    private final long retryAfterSeconds;
 
-    public AuthController(AuthenticationManager authManager, UserRepo userRepo,
-            PasswordEncoder encoder, JwtService jwt) {
-        this.authManager = authManager;
+    public AuthController(UserRepo userRepo, PasswordHashingService hashing, JwtService jwt,
+            @Value("${app.auth.hashing.retry-after-seconds:1}") long retryAfterSeconds) {
         this.userRepo = userRepo;
-        this.encoder = encoder;
+        this.hashing = hashing;
         this.jwt = jwt;
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
     @Operation(summary = "Register new user", description = "Create a new user account and receive JWT token")
@@ -46,10 +45,11 @@ public class AuthController {
         @ApiResponse(responseCode = "200", description = "User registered successfully",
                 content = @Content(schema = @Schema(implementation = AuthResponse.class))),
         @ApiResponse(responseCode = "400", description = "Email and password required"),
-        @ApiResponse(responseCode = "409", description = "Email already exists")
+        @ApiResponse(responseCode = "409", description = "Email already exists"),
+        @ApiResponse(responseCode = "503", description = "Too many logins/signups in progress; retry after Retry-After seconds")
     })
     @PostMapping("/signup")
-    public ResponseEntity<?> signup(
+    public CompletableFuture<ResponseEntity<?>> signup(
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "User signup details",
                     required = true,
@@ -61,21 +61,27 @@ public class AuthController {
         String username = request.getUsername() != null ? request.getUsername() : email;
 
         if (email == null || password == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "email_and_password_required"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "email_and_password_required")));
         }
         if (userRepo.findByEmail(email).isPresent()) {
-            return ResponseEntity.status(409).body(Map.of("error", "email_exists"));
-        }
-
-        User u = new User();
-        u.setEmail(email);
-        u.setUsername(username);
-        u.setPassword(encoder.encode(password));
-        u.setEmailVerified(false);
-        userRepo.save(u);
-
-        String token = jwt.generateToken(u.getEmail());
-        return ResponseEntity.ok(Map.of("token", token));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(409).body(Map.of("error", "email_exists")));
+        }
+
+        // BCrypt runs on the hashing pool and the save on the MVC async executor (see PasswordHashingService);
+        // the request thread is released meanwhile
+        return hashing.encode(password).<ResponseEntity<?>>thenApply(hash -> {
+            User u = new User();
+            u.setEmail(email);
+            u.setUsername(username);
+            u.setPassword(hash);
+            u.setEmailVerified(false);
+            userRepo.save(u);
+
+            String token = jwt.generateToken(u);
+            return ResponseEntity.ok(Map.of("token", token));
+        }).exceptionally(this::busy);
     }
 
     @Operation(summary = "User login", description = "Authenticate user credentials and receive JWT token")
@@ -83,10 +89,11 @@ public class AuthController {
         @ApiResponse(responseCode = "200", description = "Login successful",
                 content = @Content(schema = @Schema(implementation = AuthResponse.class))),
         @ApiResponse(responseCode = "400", description = "Email and password required"),
-        @ApiResponse(responseCode = "401", description = "Invalid credentials")
+        @ApiResponse(responseCode = "401", description = "Invalid credentials"),
+        @ApiResponse(responseCode = "503", description = "Too many logins/signups in progress; retry after Retry-After seconds")
     })
     @PostMapping("/login")
-    public ResponseEntity<?> login(
+    public CompletableFuture<ResponseEntity<?>> login(
             @io.swagger.v3.oas.annotations.parameters.RequestBody(
                     description = "User login credentials",
                     required = true,
@@ -97,19 +104,23 @@ public class AuthController {
         String password = request.getPassword();
 
         if (email == null || password == null) {
-            return ResponseEntity.badRequest().body(Map.of("error", "email_and_password_required"));
-        }
-
-        try {
-            authManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(email, password)
-            );
-        } catch (BadCredentialsException ex) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_credentials"));
-        }
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "email_and_password_required")));
+        }
+
+        // unknown emails still pay for one BCrypt check, so they can't be told apart by timing
+        User u = userRepo.findByEmail(email).orElse(null);
+        return hashing.matches(password, u != null ? u.getPassword() : null).<ResponseEntity<?>>thenApply(ok -> {
+            if (!ok) {
+                return ResponseEntity.status(401).body(Map.of("error", "invalid_credentials"));
+            }
+            String token = jwt.generateToken(u);
+            return ResponseEntity.ok(Map.of("token", token));
+        }).exceptionally(this::busy);
+    }
 
-        String token = jwt.generateToken(email);
-        return ResponseEntity.ok(Map.of("token", token));
+    private ResponseEntity<?> busy(Throwable ex) {
+        return HashingBusy.orRethrow(ex, retryAfterSeconds);
     }
 
     // DTOs for request bodies
@@ -1,14 +1,18 @@
 package com.example.splitwise.controllers;
 
 import java.math.BigDecimal;
+import java.security.Principal;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -16,13 +20,24 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.example.splitwise.model.Debitor;
 import com.example.splitwise.model.Event;
 import com.example.splitwise.model.User;
+import com.example.splitwise.repo.VersionTag;
+import com.example.splitwise.service.DebitorService;
 import com.example.splitwise.service.EventService;
+import com.example.splitwise.service.ExportService;
+import com.example.splitwise.service.KeysetPage;
+import com.example.splitwise.service.TimeKeysetPage;
+import com.example.splitwise.service.TransactionHistoryService;
 import com.example.splitwise.service.UserService;
 
+import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
@@ -34,10 +49,17 @@ public class EventController {
 
     private final EventService eventService;
     private final UserService userService;
+    private final DebitorService debitorService;
+    private final ExportService exportService;
+    private final TransactionHistoryService transactionHistory;
 
-    public EventController(EventService eventService, UserService userService) {
+    public EventController(EventService eventService, UserService userService, DebitorService debitorService,
+            ExportService exportService, TransactionHistoryService transactionHistory) {
         this.eventService = eventService;
         this.userService = userService;
+        this.debitorService = debitorService;
+        this.exportService = exportService;
+        this.transactionHistory = transactionHistory;
     }
 
     // DTOs (simple, nested)
@@ -58,26 +80,33 @@ public class EventController {
 
     // Create event with participants (equal split among included)
     @PostMapping
-    public ResponseEntity<Event> createEvent(@RequestBody CreateEventDto dto) {
-        // validate creator
-        User creator = userService.getUser(dto.creatorId).orElse(null);
-        if (creator == null) {
+    public ResponseEntity<?> createEvent(@RequestBody CreateEventDto dto) {
+        if (dto.creatorId == null) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
         if (dto.total == null || dto.total.compareTo(BigDecimal.ZERO) <= 0) {
             return ResponseEntity.badRequest().build();
         }
 
+        // creator and included participants in one query; position 0 is the creator
+        List<Long> ids = new ArrayList<>();
+        ids.add(dto.creatorId);
+        dto.participants.stream().filter(p -> p.included).forEach(p -> ids.add(p.userId));
+        List<User> users;
+        try {
+            users = userService.getUsersByIds(ids);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", ex.getMessage()));
+        }
+        User creator = users.get(0);
+
         Event e = new Event();
         e.setTitle(dto.title);
         e.setCreator(creator);
         e.setTotal(dto.total);
 
-        // build participant users list (only included)
-        List<User> includedUsers = dto.participants.stream()
-                .filter(p -> p.included)
-                .map(p -> userService.getUser(p.userId).orElse(null))
-                .collect(Collectors.toList());
+        // participant users (only included), in request order
+        List<User> includedUsers = users.subList(1, users.size());
 
         if (includedUsers.isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
@@ -101,42 +130,23 @@ public class EventController {
 //            return ResponseEntity.notFound().build();
 //        }
 //    }
+    @Operation(summary = "Get an event with its splits",
+            description = "Carries an ETag; send it back as If-None-Match to get 304 while nothing changed.")
     @GetMapping("/{id}")
-    public ResponseEntity<?> getEvent(@PathVariable Long id) {
+    public ResponseEntity<?> getEvent(@PathVariable Long id, WebRequest request) {
         try {
-            Event e = eventService.getEvent(id); // uses fetch-join in service
-
-            var splits = e.getSplits().stream().map(d -> {
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", d.getId());
-                m.put("debAmount", d.getDebAmount());
-                m.put("amountPaid", d.getAmountPaid());
-                m.put("remaining", d.getRemaining());
-                m.put("included", d.isIncluded());
-                m.put("settled", d.isSettled());
-                m.put("paidAt", d.getPaidAt());
-                // user info (may be null)
-                if (d.getUser() != null) {
-                    m.put("userId", d.getUser().getId());
-                    m.put("username", d.getUser().getUsername());
-                } else {
-                    m.put("userId", null);
-                    m.put("username", null);
-                }
-                return m;
-            }).toList();
-
-            Map<String, Object> resp = new HashMap<>();
-            resp.put("id", e.getId());
-            resp.put("title", e.getTitle());
-            resp.put("total", e.getTotal());
-            resp.put("cancelled", e.isCancelled());
-            resp.put("createdAt", e.getCreatedAt());
-            resp.put("creatorId", e.getCreator() != null ? e.getCreator().getId() : null);
-            resp.put("creatorUsername", e.getCreator() != null ? e.getCreator().getUsername() : null);
-            resp.put("splits", splits);
-
-            return ResponseEntity.ok(resp);
+            // one aggregate query answers If-None-Match before the event and its splits are loaded
+            VersionTag tag = eventService.getVersionTag(id).orElse(null);
+            if (tag == null) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "event not found"));
+            }
+            if (request.checkNotModified(tag.getEtag())) {
+                return null; // 304
+            }
+
+            // a projection of just the columns shown, no entities to hydrate
+            EventService.EventDetail detail = eventService.getEventDetail(id);
+            return ResponseEntity.ok().eTag(tag.getEtag()).body(detail);
         } catch (IllegalArgumentException ex) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "event not found"));
         } catch (Exception ex) {
@@ -189,10 +199,30 @@ public class EventController {
 //        }
 //    }
 //
-    // List events
+    // List events, one keyset page at a time (X-Next-Cursor holds the next page's cursor)
+    @Operation(summary = "List events", description = "Ordered by id. Pass the X-Next-Cursor response header as 'cursor' to get the next page.")
     @GetMapping
-    public ResponseEntity<List<Event>> getAllEvents() {
-        return ResponseEntity.ok(eventService.getAllEvents());
+    public ResponseEntity<?> getAllEvents(@RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + KeysetPage.DEFAULT_LIMIT) int limit) {
+        KeysetPage<Event> page;
+        try {
+            KeysetPage.checkLimit(limit);
+            page = eventService.getEvents(KeysetPage.after(cursor), limit);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+        var ok = ResponseEntity.ok();
+        if (page.next() != null) ok.header("X-Next-Cursor", page.nextCursor());
+        return ok.body(page.items());
+    }
+
+    // All events with their splits as one JSON array, streamed from a database cursor
+    @Operation(summary = "Export events", description = "Streams every event with its splits as a JSON array")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportEvents() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(exportService::writeEvents);
     }
 
     // Delete event (hard delete)
@@ -217,17 +247,81 @@ public class EventController {
         }
     }
 
+    @Operation(summary = "Remind participants to pay",
+            description = "Creator only. Queues one reminder e-mail per included, unsettled split that was not "
+                    + "reminded within the cooldown (app.reminders.cooldown-hours). Returns how many were queued.")
+    @PostMapping("/{id}/remind")
+    public ResponseEntity<?> remind(@PathVariable Long id, Principal principal) {
+        Long requesterId = principal != null ? userService.getIdByEmail(principal.getName()).orElse(null) : null;
+        if (requesterId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "not_authenticated"));
+        }
+        try {
+            return ResponseEntity.ok(Map.of("queued", eventService.sendReminders(id, requesterId)));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.notFound().build();
+        } catch (AccessDeniedException ex) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", ex.getMessage()));
+        } catch (IllegalStateException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    @Operation(summary = "List an event's payments",
+            description = "Newest first. from / to bound the payment time (yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss, "
+                    + "to exclusive); counterpartyId keeps payments made or received by that user. "
+                    + "Pass the X-Next-Cursor response header as 'cursor' to get the next page.")
+    @GetMapping("/{id}/transactions")
+    public ResponseEntity<?> getTransactions(@PathVariable Long id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + KeysetPage.DEFAULT_LIMIT) int limit,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) Long counterpartyId) {
+        TransactionHistoryService.Filter filter;
+        TimeKeysetPage.Key after;
+        try {
+            KeysetPage.checkLimit(limit);
+            after = TimeKeysetPage.after(cursor);
+            filter = TransactionHistoryService.Filter.parse(from, to, counterpartyId);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+        TimeKeysetPage<TransactionHistoryService.TransactionRow> page;
+        try {
+            page = transactionHistory.forEvent(id, filter, after, limit);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "event not found"));
+        }
+        var ok = ResponseEntity.ok();
+        if (page.next() != null) ok.header("X-Next-Cursor", page.nextCursor());
+        return ok.body(page.items());
+    }
+
+    @Operation(summary = "List an event's splits",
+            description = "Ordered by debitor id. Pass the X-Next-Cursor response header as 'cursor' to get the next page.")
     @GetMapping("/{eventId}/debitors")
-    public ResponseEntity<?> getDebitorsByEvent(@PathVariable Long eventId) {
-        Event e;
+    public ResponseEntity<?> getDebitorsByEvent(@PathVariable Long eventId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + KeysetPage.MAX_LIMIT) int limit,
+            @RequestParam(required = false) Boolean settled,
+            @RequestParam(required = false) Boolean included) {
+        long after;
+        try {
+            KeysetPage.checkLimit(limit);
+            after = KeysetPage.after(cursor);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+        KeysetPage<Debitor> page;
         try {
-            e = eventService.getEvent(eventId);
+            page = debitorService.getDebitorsByEvent(eventId, after, settled, included, limit);
         } catch (IllegalArgumentException ex) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", "event not found"));
         }
 
-        var list = e.getSplits().stream()
+        var list = page.items().stream()
                 .map(d -> {
                     var user = d.getUser();
                     Long userId = user != null ? user.getId() : null;
@@ -245,11 +339,25 @@ public class EventController {
                 })
                 .toList();
 
-        return ResponseEntity.ok(list);
+        var ok = ResponseEntity.ok();
+        if (page.next() != null) ok.header("X-Next-Cursor", page.nextCursor());
+        return ok.body(list);
     }
 
+    @Operation(summary = "Update an event's title / total",
+            description = "With If-Match (the ETag of GET /api/events/{id}), a stale tag is answered 412 without loading the event.")
     @PutMapping("/{id}")
-    public ResponseEntity<?> updateEvent(@PathVariable Long id, @RequestBody CreateEventDto payload) {
+    public ResponseEntity<?> updateEvent(@PathVariable Long id, @RequestBody CreateEventDto payload, WebRequest request) {
+
+        VersionTag current = eventService.getVersionTag(id).orElse(null);
+        if (current == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "event not found"));
+        }
+        if (request.checkNotModified(current.getEtag())) {
+            return null; // 412, If-Match did not match
+        }
+        boolean conditional = request.getHeader(HttpHeaders.IF_MATCH) != null;
 
         // load event safely
         Event existing;
@@ -259,6 +367,10 @@ public class EventController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", "event not found"));
         }
+        if (conditional && existing.getVersion() != current.getVersion()) {
+            // written between the check and the load
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+        }
 
         // update only allowed fields
         if (payload.title != null) {
@@ -268,9 +380,16 @@ public class EventController {
             existing.setTotal(payload.total);
         }
 
-        // SAVE
-        Event saved = eventService.save(existing);  // ← you MUST add save() in EventService if missing
-        return ResponseEntity.ok(saved);
+        // SAVE (the @Version check rejects a write that raced this one)
+        Event saved;
+        try {
+            saved = eventService.save(existing);  // ← you MUST add save() in EventService if missing
+        } catch (ObjectOptimisticLockingFailureException ex) {
+            return ResponseEntity.status(conditional ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT).build();
+        }
+        return eventService.getVersionTag(id)
+                .<ResponseEntity<?>>map(t -> ResponseEntity.ok().eTag(t.getEtag()).body(saved))
+                .orElse(ResponseEntity.ok(saved));
     }
 
 }
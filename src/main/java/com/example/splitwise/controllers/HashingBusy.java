@@ -0,0 +1,30 @@
+package com.example.splitwise.controllers;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Failure handler for futures from PasswordHashingService.
+ */
+final class HashingBusy {
+
+    private HashingBusy() {
+    }
+
+    // the hashing queue is full: shed the request quickly instead of queueing it behind the burst
+    static ResponseEntity<?> orRethrow(Throwable ex, long retryAfterSeconds) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        if (cause instanceof RejectedExecutionException) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(Map.of("error", "auth_busy"));
+        }
+        if (cause instanceof RuntimeException re) throw re;
+        throw new CompletionException(cause);
+    }
+}
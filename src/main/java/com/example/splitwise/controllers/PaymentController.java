@@ -1,18 +1,24 @@
 package com.example.splitwise.controllers;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.example.splitwise.model.Transaction;
 import com.example.splitwise.service.PaymentService;
+import com.example.splitwise.service.SettleUpService;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -24,10 +30,14 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 @SecurityRequirement(name = "bearerAuth")
 public class PaymentController {
 
+    private static final int MAX_BATCH_SIZE = 500;
+
     private final PaymentService paymentService;
+    private final SettleUpService settleUpService;
 
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, SettleUpService settleUpService) {
         this.paymentService = paymentService;
+        this.settleUpService = settleUpService;
     }
 
     public static class PayDto {
@@ -37,6 +47,16 @@ public class PaymentController {
         public BigDecimal amount;
     }
 
+    public static class BatchPayDto {
+
+        public List<PayDto> payments = new ArrayList<>();
+    }
+
+    public static class SettleUpDto {
+
+        public List<Long> userIds = new ArrayList<>();
+    }
+
     @Operation(summary = "Make payment", description = "Make a payment towards a split (partial or full settlement)")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "201", description = "Payment successful"),
@@ -44,10 +64,15 @@ public class PaymentController {
         @ApiResponse(responseCode = "500", description = "Payment failed (optimistic lock or server error)")
     })
     @PostMapping("/pay")
-    public ResponseEntity<?> pay(@RequestBody PayDto dto) {
+    public ResponseEntity<?> pay(@RequestBody PayDto dto,
+            @Parameter(description = "'atomic' applies the payment as one conditional UPDATE (no optimistic lock retries)")
+            @RequestParam(defaultValue = "standard") String mode) {
         if (dto.debitorId == null || dto.payerUserId == null || dto.amount == null) {
             return ResponseEntity.badRequest().build();
         }
+        if ("atomic".equalsIgnoreCase(mode)) {
+            return payAtomic(dto);
+        }
         try {
             Transaction tx = paymentService.payDebitor(dto.debitorId, dto.payerUserId, dto.amount);
             
@@ -71,4 +96,74 @@ public class PaymentController {
                 .body(java.util.Map.of("error", "payment_failed", "message", ex.getMessage()));
         }
     }
+
+    private ResponseEntity<?> payAtomic(PayDto dto) {
+        try {
+            PaymentService.AtomicPayment p = paymentService.payDebitorAtomic(dto.debitorId, dto.payerUserId, dto.amount);
+            var response = java.util.Map.of(
+                "id", p.transactionId(),
+                "amount", p.amount(),
+                "fromUserId", p.fromUserId(),
+                "toUserId", p.toUserId(),
+                "eventId", p.eventId(),
+                "timestamp", p.ts(),
+                "note", "",
+                "remaining", p.remaining(),
+                "settled", p.settled()
+            );
+            return ResponseEntity.status(HttpStatus.CREATED).body(response);
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(java.util.Map.of("error", ex.getMessage()));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(java.util.Map.of("error", "payment_failed", "message", ex.getMessage()));
+        }
+    }
+
+    @Operation(summary = "Batch payment", description = "Apply many payments in one transaction; each item is reported as applied or rejected")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Per-item results (rejected items are not applied)"),
+        @ApiResponse(responseCode = "400", description = "Empty or oversized batch"),
+        @ApiResponse(responseCode = "409", description = "A split changed concurrently; nothing was applied")
+    })
+    @PostMapping("/batch")
+    public ResponseEntity<?> payBatch(@RequestBody BatchPayDto dto) {
+        if (dto.payments == null || dto.payments.isEmpty()) {
+            return ResponseEntity.badRequest().body(java.util.Map.of("error", "payments_required"));
+        }
+        if (dto.payments.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().body(java.util.Map.of("error", "batch_too_large", "max", MAX_BATCH_SIZE));
+        }
+        List<PaymentService.PaymentRequest> requests = dto.payments.stream()
+                .map(p -> new PaymentService.PaymentRequest(p.debitorId, p.payerUserId, p.amount))
+                .toList();
+        try {
+            List<PaymentService.PaymentResult> results = paymentService.payBatch(requests);
+            long applied = results.stream().filter(PaymentService.PaymentResult::applied).count();
+            return ResponseEntity.ok(java.util.Map.of(
+                "applied", applied,
+                "rejected", results.size() - applied,
+                "results", results
+            ));
+        } catch (ObjectOptimisticLockingFailureException ex) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(java.util.Map.of("error", "concurrent_update", "message", ex.getMessage()));
+        }
+    }
+
+    @Operation(summary = "Settle-up suggestions", description = "Minimal set of transfers that clears the outstanding splits among the given users")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Suggested transfers"),
+        @ApiResponse(responseCode = "400", description = "No users given, or a null user id")
+    })
+    @PostMapping("/settle-up")
+    public ResponseEntity<?> settleUp(@RequestBody SettleUpDto dto) {
+        try {
+            return ResponseEntity.ok(settleUpService.suggest(dto.userIds));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(java.util.Map.of("error", ex.getMessage()));
+        }
+    }
 }
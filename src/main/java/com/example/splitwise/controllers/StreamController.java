@@ -0,0 +1,99 @@
+package com.example.splitwise.controllers;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.splitwise.model.User;
+import com.example.splitwise.service.JwtService;
+import com.example.splitwise.service.UpdateStreamService;
+import com.example.splitwise.service.UserService;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/api/stream")
+@Tag(name = "Stream", description = "Live balance and event updates")
+@SecurityRequirement(name = "bearerAuth")
+public class StreamController {
+
+    private final UpdateStreamService updateStream;
+    private final UserService userService;
+    private final JwtService jwtService;
+    private final Duration ticketTtl;
+
+    public StreamController(UpdateStreamService updateStream, UserService userService, JwtService jwtService,
+                            @Value("${app.stream.ticket-seconds:60}") long ticketSeconds) {
+        this.updateStream = updateStream;
+        this.userService = userService;
+        this.jwtService = jwtService;
+        this.ticketTtl = Duration.ofSeconds(ticketSeconds);
+    }
+
+    @Operation(summary = "Get a stream ticket",
+            description = "Short-lived token for clients that cannot send an Authorization header (EventSource): "
+                    + "pass it as access_token to GET /api/stream. It is accepted nowhere else, and the stream "
+                    + "accepts no other token in the query string. Fetch a new one for every (re)connect.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Ticket and its lifetime in seconds"),
+        @ApiResponse(responseCode = "401", description = "Missing or invalid token"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    @PostMapping("/ticket")
+    public ResponseEntity<?> ticket(Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "not_authenticated"));
+        }
+        return userService.getByEmail(principal.getName())
+                .<ResponseEntity<?>>map(u -> ResponseEntity.ok()
+                        .cacheControl(CacheControl.noStore())
+                        .body(Map.of("ticket", jwtService.generateStreamTicket(u, ticketTtl),
+                                "expiresIn", ticketTtl.toSeconds())))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found")));
+    }
+
+    @Operation(summary = "Subscribe to live updates",
+            description = "Server-Sent Events for the authenticated user. Events: 'ready' once, then "
+                    + "'balance' (change of youOwe / owedToYou), 'split' (a split after a payment or edit) and "
+                    + "'event' (created / cancelled). A ':hb' comment is sent while idle. If the client falls "
+                    + "behind, the stream is closed; reconnect and reload.")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Event stream"),
+        @ApiResponse(responseCode = "401", description = "Missing or invalid token"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    @Parameter(name = "access_token", in = ParameterIn.QUERY,
+            description = "Stream ticket from POST /api/stream/ticket, for clients that cannot send an "
+                    + "Authorization header (EventSource). Access tokens are refused here.")
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(Principal principal) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        Long userId = userService.getByEmail(principal.getName()).map(User::getId).orElse(null);
+        if (userId == null) {
+            // no body: the response type is text/event-stream
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no") // keep reverse proxies from buffering the stream
+                .body(updateStream.subscribe(userId));
+    }
+}
@@ -1,29 +1,49 @@
 package com.example.splitwise.controllers;
 
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.example.splitwise.model.User;
+import com.example.splitwise.repo.UserRepo;
+import com.example.splitwise.service.ExportService;
+import com.example.splitwise.service.KeysetPage;
+import com.example.splitwise.service.PasswordHashingService;
+import com.example.splitwise.service.TimeKeysetPage;
+import com.example.splitwise.service.TransactionHistoryService;
 import com.example.splitwise.service.UserService;
 
+import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
 
 @RestController
 @RequestMapping("/api/users")
@@ -32,11 +52,23 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 public class UserController {
 
     private final UserService userService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService hashing;
+    private final ExportService exportService;
+    private final TransactionHistoryService transactionHistory;
+    private final ObjectWriter jsonWriter;
 
-    public UserController(UserService userService, PasswordEncoder passwordEncoder) {
+    private final long retryAfterSeconds;
+
+    public UserController(UserService userService, PasswordHashingService hashing, ExportService exportService,
+            TransactionHistoryService transactionHistory, JsonMapper jsonMapper,
+            @Value("${app.auth.hashing.retry-after-seconds:1}") long retryAfterSeconds) {
         this.userService = userService;
-        this.passwordEncoder = passwordEncoder;
+        this.hashing = hashing;
+        this.exportService = exportService;
+        this.transactionHistory = transactionHistory;
+        // the servlet container owns the response stream
+        this.jsonWriter = jsonMapper.writer().without(StreamWriteFeature.AUTO_CLOSE_TARGET);
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
     // health
@@ -45,21 +77,29 @@ public class UserController {
         return ResponseEntity.ok("everything okey...");
     }
 
-    // Create user (encodes password if provided)
+    // Create user (encodes password if provided, on the hashing pool)
     @PostMapping
-    public ResponseEntity<?> createUser(@RequestBody User u) {
+    public CompletableFuture<ResponseEntity<?>> createUser(@RequestBody User u) {
         if (u.getEmail() == null || u.getEmail().trim().isEmpty()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "email_required"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "email_required")));
         }
         if (userService.findByEmail(u.getEmail()) != null) {
-            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "email_exists"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "email_exists")));
         }
 
         // set encoded password if provided (otherwise leave null)
-        if (u.getPassword() != null && !u.getPassword().isBlank()) {
-            u.setPassword(passwordEncoder.encode(u.getPassword()));
+        if (u.getPassword() == null || u.getPassword().isBlank()) {
+            return CompletableFuture.completedFuture(created(u));
         }
+        return hashing.encode(u.getPassword()).<ResponseEntity<?>>thenApply(hash -> {
+            u.setPassword(hash);
+            return created(u);
+        }).exceptionally(this::busy);
+    }
 
+    private ResponseEntity<?> created(User u) {
         User saved = userService.createUser(u);
         // do not return password field in response
         Map<String, Object> resp = new HashMap<>();
@@ -71,63 +111,124 @@ public class UserController {
         return ResponseEntity.status(HttpStatus.CREATED).body(resp);
     }
 
-    // Get one user (minimal view)
+    // Get one user (minimal view): primary-key lookup behind the profile cache
+    @Operation(summary = "Get a user's public profile",
+            description = "Carries an ETag (the user's version); If-None-Match answers 304 from the profile cache.")
     @GetMapping("/{id}")
-    public ResponseEntity<?> getUser(@PathVariable Long id) {
-        var users = userService.getAllUsers();
-
-        for (var u : users) {
-            if (id.equals(u.getId())) {
-                Map<String, Object> m = new HashMap<>();
-                m.put("id", u.getId());
-                m.put("username", u.getUsername());
-                m.put("total", u.getTotal());
-                return ResponseEntity.ok(m);
-            }
+    public ResponseEntity<?> getUser(@PathVariable Long id, WebRequest request) {
+        UserService.UserProfile p = userService.getProfile(id).orElse(null);
+        if (p == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found"));
         }
+        String etag = userEtag(p.version());
+        if (request.checkNotModified(etag)) {
+            return null; // 304
+        }
+        Map<String, Object> m = new HashMap<>();
+        m.put("id", p.id());
+        m.put("username", p.username());
+        m.put("total", p.total());
+        return ResponseEntity.ok().eTag(etag).body(m);
+    }
 
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found"));
+    // Net balance per counterparty: positive amount means {id} owes that counterparty
+    @Operation(summary = "Pairwise balances", description = "Net amount the user owes (positive) or is owed (negative) per counterparty")
+    @GetMapping("/{id}/balances")
+    public ResponseEntity<?> getBalances(@PathVariable Long id) {
+        if (!userService.existsById(id)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found"));
+        }
+        var balances = userService.getPairBalances(id).entrySet().stream()
+                .map(e -> Map.of(
+                "counterpartyId", e.getKey(),
+                "amount", e.getValue()
+        ))
+                .toList();
+        return ResponseEntity.ok(Map.of("userId", id, "balances", balances));
     }
 
-    // List users (minimal)
+    // List users (minimal), one keyset page at a time (X-Next-Cursor holds the next page's cursor)
+    @Operation(summary = "List users", description = "Ordered by id. Pass the X-Next-Cursor response header as 'cursor' to get the next page.")
     @GetMapping
-    public ResponseEntity<List<Map<String, Object>>> getAllUsers() {
-        var users = userService.getAllUsers();
-        var list = users.stream().map(u -> {
-            Map<String, Object> m = new HashMap<>();
-            m.put("id", u.getId());
-            m.put("username", u.getUsername());
-            m.put("total", u.getTotal());
-            return m;
-        }).toList();
-        return ResponseEntity.ok(list);
+    public ResponseEntity<?> getAllUsers(@RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + KeysetPage.DEFAULT_LIMIT) int limit) {
+        KeysetPage<UserRepo.SummaryRow> page;
+        try {
+            KeysetPage.checkLimit(limit);
+            page = userService.getUsers(KeysetPage.after(cursor), limit);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+        var ok = ResponseEntity.ok();
+        if (page.next() != null) ok.header("X-Next-Cursor", page.nextCursor());
+        return ok.body(page.items());
+    }
+
+    // All users as one JSON array, streamed from a database cursor (flat heap use)
+    @Operation(summary = "Export users", description = "Streams every user (id, username, total) as a JSON array")
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(exportService::writeUsers);
     }
 
     // Update user (partial safe update)
+    @Operation(summary = "Update a user",
+            description = "With If-Match (the ETag of GET /api/users/{id}), a stale tag is answered 412 without loading the user.")
     @PutMapping("/{id}")
-    public ResponseEntity<?> updateUser(@PathVariable Long id, @RequestBody User payload) {
-        if (!userService.existsById(id)) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found"));
+    public CompletableFuture<ResponseEntity<?>> updateUser(@PathVariable Long id, @RequestBody User payload,
+            WebRequest request) {
+        // version by primary key: existence check and If-Match in one lookup
+        Long version = userService.getVersion(id).orElse(null);
+        if (version == null) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found")));
+        }
+        if (request.checkNotModified(userEtag(version))) {
+            // If-Match did not match; explicit, since the not-modified flag does not survive the async dispatch
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build());
+        }
+        boolean conditional = request.getHeader(HttpHeaders.IF_MATCH) != null;
+
+        // if password is provided here, encode it on the hashing pool (optional: allow admin to change)
+        if (payload.getPassword() == null || payload.getPassword().isBlank()) {
+            return CompletableFuture.completedFuture(applyUpdate(id, payload, version, conditional, null));
         }
+        return hashing.encode(payload.getPassword())
+                .<ResponseEntity<?>>thenApply(hash -> applyUpdate(id, payload, version, conditional, hash))
+                .exceptionally(this::busy);
+    }
 
-        return userService.getUser(id).map(existing -> {
+    private ResponseEntity<?> applyUpdate(Long id, User payload, long version, boolean conditional,
+            String passwordHash) {
+        return userService.getUser(id).<ResponseEntity<?>>map(existing -> {
+            if (conditional && existing.getVersion() != version) {
+                // written between the check and the load
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+            }
             if (payload.getUsername() != null) {
                 existing.setUsername(payload.getUsername());
             }
             if (payload.getTotal() != null) {
                 existing.setTotal(payload.getTotal());
             }
-            // if password is provided here, encode it (optional: allow admin to change)
-            if (payload.getPassword() != null && !payload.getPassword().isBlank()) {
-                existing.setPassword(passwordEncoder.encode(payload.getPassword()));
+            if (passwordHash != null) {
+                existing.setPassword(passwordHash);
+                existing.revokeTokens();
+            }
+            User updated;
+            try {
+                updated = userService.updateUser(existing);
+            } catch (ObjectOptimisticLockingFailureException ex) {
+                return ResponseEntity.status(conditional ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT).build();
             }
-            User updated = userService.updateUser(existing);
 
             Map<String, Object> resp = new HashMap<>();
             resp.put("id", updated.getId());
             resp.put("username", updated.getUsername());
             resp.put("total", updated.getTotal());
-            return ResponseEntity.ok(resp);
+            return ResponseEntity.ok().eTag(userEtag(updated.getVersion())).body(resp);
         }).orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "user not found")));
     }
 
@@ -148,7 +249,7 @@ public class UserController {
 
     // Authenticated user's profile (works with JWT; Principal.getName() is email)
     @GetMapping("/me")
-    public ResponseEntity<?> me(Principal principal) {
+    public ResponseEntity<?> me(Principal principal, WebRequest request) {
         if (principal == null) {
             return ResponseEntity.status(401).build();
         }
@@ -158,49 +259,128 @@ public class UserController {
             return ResponseEntity.status(400).body(Map.of("error", "no_email_in_principal"));
         }
 
-        User u = userService.getUserWithCollectionsByEmail(email);
-        if (u == null) {
+        // one aggregate query answers If-None-Match before the user, its splits and events are loaded
+        String etag = userService.getProfileEtag(email).orElse(null);
+        if (etag == null) {
             return ResponseEntity.status(404).body(Map.of("error", "user not found"));
         }
+        if (request.checkNotModified(etag)) {
+            return null; // 304
+        }
 
-        BigDecimal youOwe = userService.computeYouOwe(u);
-        BigDecimal owedToYou = userService.computeOwedToYou(u);
-        BigDecimal total = u.getTotal() == null ? BigDecimal.ZERO : u.getTotal();
-
-        var debitors = u.getDebitors().stream()
-                .map(d -> Map.of(
-                "id", d.getId(),
-                "eventId", d.getEvent() != null ? d.getEvent().getId() : null,
-                "userId", d.getUser() != null ? d.getUser().getId() : null,
-                "debAmount", d.getDebAmount(),
-                "amountPaid", d.getAmountPaid(),
-                "remaining", d.getDebAmount().subtract(d.getAmountPaid()),
-                "included", d.isIncluded(),
-                "settled", d.isSettled()
-        ))
-                .toList();
+        UserService.MeView me = userService.getMe(email).orElse(null);
+        if (me == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "user not found"));
+        }
+        return ResponseEntity.ok().eTag(etag).body(me);
+    }
 
-        var events = u.getEvents().stream()
-                .map(e -> Map.of(
-                "id", e.getId(),
-                "title", e.getTitle(),
-                "total", e.getTotal(),
-                "cancelled", e.isCancelled()
-        ))
-                .toList();
+    // Payments the authenticated user made or received, newest first
+    @Operation(summary = "My payments",
+            description = "Payments made or received, newest first. from / to bound the payment time "
+                    + "(yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss, to exclusive); counterpartyId keeps payments to or "
+                    + "from that user. Pass the X-Next-Cursor response header as 'cursor' to get the next page.")
+    @GetMapping("/me/transactions")
+    public ResponseEntity<?> myTransactions(Principal principal,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + KeysetPage.DEFAULT_LIMIT) int limit,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) Long counterpartyId) {
+        if (principal == null) {
+            return ResponseEntity.status(401).build();
+        }
+        TransactionHistoryService.Filter filter;
+        TimeKeysetPage.Key after;
+        try {
+            KeysetPage.checkLimit(limit);
+            after = TimeKeysetPage.after(cursor);
+            filter = TransactionHistoryService.Filter.parse(from, to, counterpartyId);
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+        Long userId = userService.getIdByEmail(principal.getName()).orElse(null);
+        if (userId == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "user not found"));
+        }
+        TimeKeysetPage<TransactionHistoryService.TransactionRow> page =
+                transactionHistory.forUser(userId, filter, after, limit);
+        var ok = ResponseEntity.ok();
+        if (page.next() != null) ok.header("X-Next-Cursor", page.nextCursor());
+        return ok.body(page.items());
+    }
 
-        Map<String, Object> resp = new HashMap<>();
-        resp.put("id", u.getId());
-        resp.put("email", u.getEmail());
-        resp.put("username", u.getUsername());
-        resp.put("total", total);
-        resp.put("emailVerified", u.isEmailVerified());
-        resp.put("youOwe", youOwe);
-        resp.put("owedToYou", owedToYou);
-        resp.put("debitors", debitors);
-        resp.put("events", events);
+    // Statement of the authenticated user as CSV, streamed from a database cursor (flat heap use)
+    @Operation(summary = "My statement (CSV)",
+            description = "Shares, amounts lent and payments, oldest first after an opening balance, each with the "
+                    + "running net of these entries (positive: others owe you). This is not the stored balance of /me: "
+                    + "a split settled without full payment, or an event whose total differs from its splits, sets "
+                    + "the two apart. Pick a month (yyyy-MM) or a from / to range "
+                    + "(yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss, to exclusive); neither means the whole history. "
+                    + "Gzip-encoded when the client accepts it.")
+    @GetMapping("/me/statement")
+    public ResponseEntity<StreamingResponseBody> myStatement(Principal principal,
+            @RequestParam(required = false) String month,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        if (principal == null) {
+            return statementError(HttpStatus.UNAUTHORIZED, "not_authenticated");
+        }
+        TransactionHistoryService.Filter range;
+        String name;
+        try {
+            if (month != null && !month.isBlank()) {
+                if (from != null || to != null) throw new IllegalArgumentException("Use either month or from / to");
+                YearMonth m = parseMonth(month);
+                range = new TransactionHistoryService.Filter(m.atDay(1).atStartOfDay(),
+                        m.plusMonths(1).atDay(1).atStartOfDay(), null);
+                name = "statement-" + m + ".csv";
+            } else {
+                range = TransactionHistoryService.Filter.parse(from, to, null);
+                name = "statement.csv";
+            }
+        } catch (IllegalArgumentException ex) {
+            return statementError(HttpStatus.BAD_REQUEST, ex.getMessage());
+        }
+        Long userId = userService.getIdByEmail(principal.getName()).orElse(null);
+        if (userId == null) {
+            return statementError(HttpStatus.NOT_FOUND, "user not found");
+        }
 
-        return ResponseEntity.ok(resp);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        StreamingResponseBody body = out -> {
+            if (!gzip) {
+                exportService.writeStatement(userId, range.from(), range.to(), out);
+                return;
+            }
+            // sync flush: every flush of the writer reaches the client instead of waiting in the deflater
+            GZIPOutputStream zipped = new GZIPOutputStream(out, 8192, true);
+            exportService.writeStatement(userId, range.from(), range.to(), zipped);
+            zipped.finish();
+        };
+        var ok = ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) ok.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return ok.body(body);
+    }
+
+    // the streaming handler only picks up a ResponseEntity declared with a StreamingResponseBody,
+    // so the statement's error bodies are streamed too
+    private ResponseEntity<StreamingResponseBody> statementError(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> jsonWriter.writeValue(out, Map.of("error", message)));
+    }
+
+    private static YearMonth parseMonth(String month) {
+        try {
+            return YearMonth.parse(month);
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid month: expected yyyy-MM");
+        }
     }
 
     // Set username for authenticated user
@@ -226,11 +406,12 @@ public class UserController {
         }
     }
 
-    // Change password for authenticated user
+    // Change password for authenticated user (BCrypt on the hashing pool)
     @PostMapping("/set-password")
-    public ResponseEntity<?> setPassword(Principal principal, @RequestBody Map<String, String> body) {
+    public CompletableFuture<ResponseEntity<?>> setPassword(Principal principal, @RequestBody Map<String, String> body) {
         if (principal == null) {
-            return ResponseEntity.status(401).body(Map.of("error", "not_authenticated"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(401).body(Map.of("error", "not_authenticated")));
         }
 
         String email = principal.getName();
@@ -238,31 +419,50 @@ public class UserController {
         String newPw = body.get("newPassword");
 
         if (newPw == null || newPw.length() < 6) {
-            return ResponseEntity.badRequest().body(Map.of("error", "new_password_too_short"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("error", "new_password_too_short")));
         }
 
         User u = userService.findByEmail(email);
         if (u == null) {
-            return ResponseEntity.status(404).body(Map.of("error", "user not found"));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(404).body(Map.of("error", "user not found")));
         }
 
         // if user had no password (OAuth user converted), allow set when oldPw is absent
         if (u.getPassword() == null || u.getPassword().isBlank()) {
             // set new password directly
-            u.setPassword(passwordEncoder.encode(newPw));
-            userService.updateUser(u);
-            return ResponseEntity.ok(Map.of("status", "password_set"));
+            return hashing.encode(newPw).<ResponseEntity<?>>thenApply(hash -> {
+                storePassword(u, hash);
+                return ResponseEntity.ok(Map.of("status", "password_set"));
+            }).exceptionally(this::busy);
         }
 
         // verify old password
-        if (oldPw == null || !passwordEncoder.matches(oldPw, u.getPassword())) {
-            return ResponseEntity.status(401).body(Map.of("error", "invalid_old_password"));
+        if (oldPw == null) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(401).body(Map.of("error", "invalid_old_password")));
         }
+        return hashing.matches(oldPw, u.getPassword())
+                .thenCompose(ok -> ok ? hashing.encode(newPw) : CompletableFuture.<String>completedFuture(null))
+                .<ResponseEntity<?>>thenApply(hash -> {
+                    if (hash == null) {
+                        return ResponseEntity.status(401).body(Map.of("error", "invalid_old_password"));
+                    }
+                    // all good — update; tokens issued before the change stop working
+                    storePassword(u, hash);
+                    return ResponseEntity.ok(Map.of("status", "password_changed"));
+                }).exceptionally(this::busy);
+    }
 
-        // all good — update
-        u.setPassword(passwordEncoder.encode(newPw));
+    private void storePassword(User u, String hash) {
+        u.setPassword(hash);
+        u.revokeTokens();
         userService.updateUser(u);
-        return ResponseEntity.ok(Map.of("status", "password_changed"));
+    }
+
+    private ResponseEntity<?> busy(Throwable ex) {
+        return HashingBusy.orRethrow(ex, retryAfterSeconds);
     }
 
     // Search by username (case-insensitive)
@@ -284,4 +484,9 @@ public class UserController {
         );
         return ResponseEntity.ok(resp);
     }
+
+    // strong ETag of GET /api/users/{id}, checked by If-Match on PUT
+    private static String userEtag(long version) {
+        return "\"v" + version + "\"";
+    }
 }
@@ -4,6 +4,8 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.ColumnDefault;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -13,6 +15,7 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import jakarta.persistence.Version;
 
@@ -21,7 +24,8 @@ import jakarta.persistence.Version;
 public class Debitor {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "debitors_seq")
+    @SequenceGenerator(name = "debitors_seq", sequenceName = "debitors_seq", allocationSize = 50)
     private Long id;
 
     // who this split row belongs to (the person who owes / participates)
@@ -47,7 +51,14 @@ public class Debitor {
 
     private LocalDateTime paidAt;
 
+    // reminder cooldown; only ever set by DebitorRepo.markReminded
+    @JsonIgnore
+    @Column(name = "last_reminded_at", insertable = false, updatable = false)
+    private LocalDateTime lastRemindedAt;
+
     @Version
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
     private Long version; // optimistic locking
 
     public BigDecimal getRemaining() {
@@ -118,4 +129,12 @@ public class Debitor {
     public void setPaidAt(LocalDateTime paidAt) {
         this.paidAt = paidAt;
     }
+
+    public LocalDateTime getLastRemindedAt() {
+        return lastRemindedAt;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
 }
@@ -7,6 +7,7 @@ import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
+import org.hibernate.annotations.ColumnDefault;
 
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
@@ -18,14 +19,18 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 
 @Entity
 @Table(name = "events")
 public class Event {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // pooled sequence: one nextval per 50 rows, and inserts can be JDBC-batched
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "events_seq")
+    @SequenceGenerator(name = "events_seq", sequenceName = "events_seq", allocationSize = 50)
     private Long id;
 
     private String title;
@@ -41,6 +46,36 @@ public class Event {
 
     private boolean cancelled = false;
 
+    // optimistic locking; part of the event's ETag (with its splits' versions)
+    @Version
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    // settlement counters over all splits, maintained by BalanceService.apply with in-place
+    // increments (never written from the entity, so concurrent payments cannot overwrite them)
+    @ColumnDefault("0")
+    @Column(name = "paid_total", precision = 15, scale = 2, nullable = false, insertable = false, updatable = false)
+    private BigDecimal paidTotal = BigDecimal.ZERO;
+
+    // what is still owed on the unsettled splits
+    @ColumnDefault("0")
+    @Column(name = "outstanding_total", precision = 15, scale = 2, nullable = false, insertable = false, updatable = false)
+    private BigDecimal outstandingTotal = BigDecimal.ZERO;
+
+    @ColumnDefault("0")
+    @Column(name = "split_count", nullable = false, insertable = false, updatable = false)
+    private int splitCount;
+
+    @ColumnDefault("0")
+    @Column(name = "settled_count", nullable = false, insertable = false, updatable = false)
+    private int settledCount;
+
+    // at least one split and all of them settled
+    @ColumnDefault("false")
+    @Column(name = "fully_settled", nullable = false, insertable = false, updatable = false)
+    private boolean fullySettled;
+
     @OneToMany(mappedBy = "event", cascade = CascadeType.ALL,
             orphanRemoval = true, fetch = FetchType.LAZY)
     @JsonManagedReference(value = "event-splits")
@@ -57,6 +92,28 @@ public class Event {
         d.setEvent(null);
     }
 
+    /**
+     * Bring the in-memory counters in line with the loaded splits, after a write whose counter
+     * increments went straight to the database. Nothing is persisted by this.
+     */
+    public void recount() {
+        BigDecimal paid = BigDecimal.ZERO;
+        BigDecimal outstanding = BigDecimal.ZERO;
+        int settled = 0;
+        for (Debitor d : splits) {
+            BigDecimal debAmount = d.getDebAmount() != null ? d.getDebAmount() : BigDecimal.ZERO;
+            BigDecimal amountPaid = d.getAmountPaid() != null ? d.getAmountPaid() : BigDecimal.ZERO;
+            paid = paid.add(amountPaid);
+            if (d.isSettled()) settled++;
+            else outstanding = outstanding.add(debAmount.subtract(amountPaid));
+        }
+        this.paidTotal = paid;
+        this.outstandingTotal = outstanding;
+        this.splitCount = splits.size();
+        this.settledCount = settled;
+        this.fullySettled = !splits.isEmpty() && settled == splits.size();
+    }
+
     // getters / setters
     public Long getId() {
         return id;
@@ -102,6 +159,30 @@ public class Event {
         return splits;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public BigDecimal getPaidTotal() {
+        return paidTotal;
+    }
+
+    public BigDecimal getOutstandingTotal() {
+        return outstandingTotal;
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    public boolean isFullySettled() {
+        return fullySettled;
+    }
+
     public boolean isCancelled() {
         return cancelled;
     }
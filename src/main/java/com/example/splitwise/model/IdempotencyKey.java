@@ -0,0 +1,89 @@
+package com.example.splitwise.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * A client-supplied Idempotency-Key and the response first returned for it.
+ * The row is claimed (status null) before the request runs and completed with
+ * the captured response afterwards; see IdempotencyService.
+ */
+@Entity
+@Table(name = "idempotency_keys")
+public class IdempotencyKey {
+
+    // sha-256 of principal + key, so keys are scoped per user
+    @Id
+    @Column(name = "scope_key", length = 64)
+    private String scopeKey;
+
+    // sha-256 of method, path and body of the first request
+    @Column(name = "fingerprint", length = 64, nullable = false)
+    private String fingerprint;
+
+    // null while the first request is still running
+    @Column(name = "status")
+    private Integer status;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "body")
+    private byte[] body;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // getters / setters
+    public String getScopeKey() {
+        return scopeKey;
+    }
+
+    public void setScopeKey(String scopeKey) {
+        this.scopeKey = scopeKey;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
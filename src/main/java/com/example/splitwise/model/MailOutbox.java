@@ -0,0 +1,78 @@
+package com.example.splitwise.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * An e-mail waiting to be sent. Written in the caller's transaction by EmailService and
+ * drained by MailOutboxDispatcher, which leases due rows by pushing next_attempt_at
+ * forward, sends them and then marks them sent or schedules a retry.
+ */
+@Entity
+@Table(name = "mail_outbox")
+public class MailOutbox {
+
+    public enum Status { PENDING, SENT, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "mail_outbox_seq")
+    @SequenceGenerator(name = "mail_outbox_seq", sequenceName = "mail_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "to_address", nullable = false)
+    private String toAddress;
+
+    @Column(name = "subject", nullable = false)
+    private String subject;
+
+    @Column(name = "html", nullable = false, columnDefinition = "text")
+    private String html;
+
+    @Column(name = "status", nullable = false, length = 16)
+    private String status = Status.PENDING.name();
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    // PENDING: not before this; while a dispatcher holds the row, the end of its lease
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    public MailOutbox() {
+    }
+
+    public MailOutbox(String toAddress, String subject, String html, LocalDateTime now) {
+        this.toAddress = toAddress;
+        this.subject = subject;
+        this.html = html;
+        this.createdAt = now;
+        this.nextAttemptAt = now;
+    }
+
+    public Long getId() { return id; }
+    public String getToAddress() { return toAddress; }
+    public String getSubject() { return subject; }
+    public String getHtml() { return html; }
+    public String getStatus() { return status; }
+    public int getAttempts() { return attempts; }
+    public LocalDateTime getNextAttemptAt() { return nextAttemptAt; }
+    public String getLastError() { return lastError; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public LocalDateTime getSentAt() { return sentAt; }
+}
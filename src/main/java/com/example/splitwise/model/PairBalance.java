@@ -0,0 +1,85 @@
+package com.example.splitwise.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Objects;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+
+/**
+ * Net amount one user owes another, over unsettled splits of non-cancelled events.
+ * Every pair is stored in both orientations: (a, b, x) and (b, a, -x), so all
+ * counterparties of a user are a single range read on the (debtor_id, creditor_id) index.
+ * A positive amount means debtor owes creditor.
+ */
+@Entity
+@Table(name = "pair_balances")
+@IdClass(PairBalance.Key.class)
+public class PairBalance {
+
+    @Id
+    @Column(name = "debtor_id")
+    private Long debtorId;
+
+    @Id
+    @Column(name = "creditor_id")
+    private Long creditorId;
+
+    @Column(precision = 15, scale = 2, nullable = false)
+    private BigDecimal amount = BigDecimal.ZERO;
+
+    public static class Key implements Serializable {
+
+        private Long debtorId;
+        private Long creditorId;
+
+        public Key() {
+        }
+
+        public Key(Long debtorId, Long creditorId) {
+            this.debtorId = debtorId;
+            this.creditorId = creditorId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key k)) return false;
+            return Objects.equals(debtorId, k.debtorId) && Objects.equals(creditorId, k.creditorId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(debtorId, creditorId);
+        }
+    }
+
+    // getters / setters
+    public Long getDebtorId() {
+        return debtorId;
+    }
+
+    public void setDebtorId(Long debtorId) {
+        this.debtorId = debtorId;
+    }
+
+    public Long getCreditorId() {
+        return creditorId;
+    }
+
+    public void setCreditorId(Long creditorId) {
+        this.creditorId = creditorId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.splitwise.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonManagedReference;
 import java.math.BigDecimal;
@@ -11,7 +12,8 @@ import java.util.List;
 @Table(name = "users")
 public class User {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
 
     @Column(unique = true)
@@ -39,6 +41,19 @@ public class User {
     @Column(nullable = false)
     private String password;
 
+    // carried in every issued JWT; bumping it revokes all tokens issued before
+    @JsonIgnore
+    @ColumnDefault("0")
+    @Column(name = "token_version", nullable = false)
+    private int tokenVersion;
+
+    // optimistic locking; also the ETag of GET /api/users/{id}
+    @Version
+    @JsonIgnore
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
 
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL,
             orphanRemoval = true, fetch = FetchType.LAZY)
@@ -78,6 +93,21 @@ public class User {
         this.password = password;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public int getTokenVersion() {
+        return tokenVersion;
+    }
+
+    /**
+     * Invalidate every token issued so far (password change).
+     */
+    public void revokeTokens() {
+        tokenVersion++;
+    }
+
 
 
     public void addEvent(Event e){
@@ -0,0 +1,64 @@
+package com.example.splitwise.model;
+
+import java.math.BigDecimal;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Materialized per-user balances. Maintained incrementally by BalanceService
+ * in the same transaction as every write that touches a Debitor or an Event,
+ * so /api/users/me does not have to walk splits to compute them.
+ */
+@Entity
+@Table(name = "user_balances")
+public class UserBalance {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    // sum of remaining share over the user's unsettled splits
+    @Column(name = "you_owe", precision = 15, scale = 2, nullable = false)
+    private BigDecimal youOwe = BigDecimal.ZERO;
+
+    // sum of (total - paid) over the user's non-cancelled events
+    @Column(name = "owed_to_you", precision = 15, scale = 2, nullable = false)
+    private BigDecimal owedToYou = BigDecimal.ZERO;
+
+    public UserBalance() {
+    }
+
+    public UserBalance(Long userId, BigDecimal youOwe, BigDecimal owedToYou) {
+        this.userId = userId;
+        this.youOwe = youOwe;
+        this.owedToYou = owedToYou;
+    }
+
+    // getters / setters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public BigDecimal getYouOwe() {
+        return youOwe;
+    }
+
+    public void setYouOwe(BigDecimal youOwe) {
+        this.youOwe = youOwe;
+    }
+
+    public BigDecimal getOwedToYou() {
+        return owedToYou;
+    }
+
+    public void setOwedToYou(BigDecimal owedToYou) {
+        this.owedToYou = owedToYou;
+    }
+}
@@ -1,10 +1,99 @@
 package com.example.splitwise.repo;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import com.example.splitwise.model.Debitor;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 public interface DebitorRepo extends JpaRepository<Debitor, Long> {
     List<Debitor> findByUserId(Long userId);
+
+    // claim a split for a reminder: 1 unless it was reminded since remindedBefore (the check and the
+    // stamp are one statement, so two concurrent calls cannot both send). Does not bump @Version.
+    @Modifying
+    @Query(value = """
+    update debitors set last_reminded_at = :now
+    where id = :id and (last_reminded_at is null or last_reminded_at < :remindedBefore)
+    """, nativeQuery = true)
+    int markReminded(@Param("id") Long id,
+                     @Param("now") LocalDateTime now,
+                     @Param("remindedBefore") LocalDateTime remindedBefore);
+
+    // keyset page in primary key order
+    List<Debitor> findByIdGreaterThanOrderById(Long afterId, Limit limit);
+
+    // one event's splits in id order, starting after a key; range scan on (event_id, id)
+    @Query("""
+    select d from Debitor d
+    left join fetch d.user
+    where d.event.id = :eventId and d.id > :afterId
+      and (:settled is null or d.settled = :settled)
+      and (:included is null or d.included = :included)
+    order by d.id
+    """)
+    List<Debitor> findPageByEvent(@Param("eventId") Long eventId,
+                                  @Param("afterId") Long afterId,
+                                  @Param("settled") Boolean settled,
+                                  @Param("included") Boolean included,
+                                  Limit limit);
+
+    // splits with their event and payee in one IN query (batch payments)
+    @Query("""
+    select d from Debitor d
+    left join fetch d.event e
+    left join fetch e.creator
+    where d.id in :ids
+    """)
+    List<Debitor> findAllWithEventByIdIn(@Param("ids") Collection<Long> ids);
+
+    // --- balance rebuild aggregates (see BalanceService) ---
+
+    @Query("""
+    select coalesce(sum(d.debAmount - d.amountPaid), 0)
+    from Debitor d
+    where d.user.id = :userId and d.settled = false
+    """)
+    BigDecimal sumOutstandingByUser(@Param("userId") Long userId);
+
+
+    // net amount a owes b (negative when b owes a), same rules as pair_balances
+    @Query("""
+    select coalesce(sum(case when d.user.id = :a then d.debAmount - d.amountPaid
+                             else d.amountPaid - d.debAmount end), 0)
+    from Debitor d
+    where d.settled = false and d.event.cancelled = false
+      and ((d.user.id = :a and d.event.creator.id = :b) or (d.user.id = :b and d.event.creator.id = :a))
+    """)
+    BigDecimal sumNetOwedBetween(@Param("a") Long a, @Param("b") Long b);
+
+    // every split deleting a user removes: the user's own, and all splits of the events they created
+    @Query("""
+    select d from Debitor d
+    left join fetch d.user
+    left join fetch d.event e
+    left join fetch e.creator
+    where d.user.id = :userId or e.creator.id = :userId
+    """)
+    List<Debitor> findAllRemovedWithUser(@Param("userId") Long userId);
+
+    // GET /api/users/me: the user's splits
+    record UserSplitRow(Long id, Long eventId, Long userId, BigDecimal debAmount, BigDecimal amountPaid,
+                        BigDecimal remaining, boolean included, boolean settled) {
+    }
+
+    @Query("""
+    select new com.example.splitwise.repo.DebitorRepo$UserSplitRow(
+        d.id, d.event.id, d.user.id, d.debAmount, d.amountPaid, d.debAmount - d.amountPaid, d.included, d.settled)
+    from Debitor d
+    where d.user.id = :userId
+    order by d.id
+    """)
+    List<UserSplitRow> findUserSplitRows(@Param("userId") Long userId);
 }
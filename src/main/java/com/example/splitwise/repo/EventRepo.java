@@ -1,12 +1,21 @@
 package com.example.splitwise.repo;
 
 import com.example.splitwise.model.Event;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface EventRepo extends JpaRepository<Event, Long> {
     @Query("select e from Event e " +
@@ -16,6 +25,48 @@ public interface EventRepo extends JpaRepository<Event, Long> {
             "where e.id = :id")
     Optional<Event> findByIdWithSplitsAndUsers(@Param("id") Long id);
 
+    // ETag of GET /api/events/{id}: changes with the event, any of its splits (added, removed,
+    // @Version bumped) or a participant's / the creator's user row. Index scans only.
+    @Query(value = """
+    select e.version as version,
+           md5(concat_ws('.', e.id, e.version, coalesce(c.version, -1),
+               (select concat_ws('.', count(*), sum(d.id), sum(coalesce(d.version, 0)), sum(u.version))
+                from debitors d left join users u on u.id = d.user_id
+                where d.event_id = e.id))) as etag
+    from events e left join users c on c.id = e.creator_id
+    where e.id = :id
+    """, nativeQuery = true)
+    Optional<VersionTag> findVersionTagById(@Param("id") Long id);
+
+    // GET /api/events/{id}: one row per split (or one with null split columns for an event
+    // without splits), only the columns the response shows
+    record DetailRow(Long id, String title, BigDecimal total, boolean cancelled, LocalDateTime createdAt,
+                     Long creatorId, String creatorUsername, Long debitorId, BigDecimal debAmount,
+                     BigDecimal amountPaid, Boolean included, Boolean settled, LocalDateTime paidAt,
+                     Long userId, String username) {
+    }
+
+    @Query("""
+    select new com.example.splitwise.repo.EventRepo$DetailRow(
+        e.id, e.title, e.total, e.cancelled, e.createdAt, c.id, c.username,
+        d.id, d.debAmount, d.amountPaid, d.included, d.settled, d.paidAt, u.id, u.username)
+    from Event e
+    left join e.creator c
+    left join e.splits d
+    left join d.user u
+    where e.id = :id
+    order by d.id
+    """)
+    List<DetailRow> findDetailRows(@Param("id") Long id);
+
+    // GET /api/users/me: the events a user created
+    record CreatedRow(Long id, String title, BigDecimal total, boolean cancelled) {
+    }
+
+    @Query("select new com.example.splitwise.repo.EventRepo$CreatedRow(e.id, e.title, e.total, e.cancelled) " +
+            "from Event e where e.creator.id = :creatorId order by e.id")
+    List<CreatedRow> findCreatedRows(@Param("creatorId") Long creatorId);
+
     @Query("""
     select distinct e
     from Event e
@@ -25,6 +76,58 @@ public interface EventRepo extends JpaRepository<Event, Long> {
     List<Event> findEventsByUser(@Param("userId") Long userId);
 
 
+    // keyset page: ids only, straight off the primary key index
+    @Query("select e.id from Event e where e.id > :afterId order by e.id")
+    List<Long> findPageIds(@Param("afterId") Long afterId, Limit limit);
+
+    // the events of one page with their splits, one query for the whole page
+    @Query("select distinct e from Event e left join fetch e.splits where e.id in :ids order by e.id")
+    List<Event> findAllWithSplitsByIdIn(@Param("ids") Collection<Long> ids);
+
+    // export rows: one per split (or one with null split columns for an event without splits),
+    // grouped by event, read through a server-side cursor (caller must be in a transaction)
+    record ExportRow(Long eventId, String title, LocalDateTime createdAt, Long creatorId, BigDecimal total,
+                     boolean cancelled, Long debitorId, Long userId, BigDecimal debAmount,
+                     BigDecimal amountPaid, Boolean settled, Boolean included) {
+    }
+
+    @Query("""
+    select new com.example.splitwise.repo.EventRepo$ExportRow(
+        e.id, e.title, e.createdAt, c.id, e.total, e.cancelled,
+        d.id, u.id, d.debAmount, d.amountPaid, d.settled, d.included)
+    from Event e
+    left join e.creator c
+    left join e.splits d
+    left join d.user u
+    order by e.id, d.id
+    """)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ExportRow> streamAllForExport();
+
     @Query("select e from Event e left join fetch e.splits where e.id = :id")
     Event findWithSplitsById(@Param("id") Long id);
+
+    // owedToYou from the events alone: what the open events are worth minus what was paid on them
+    @Query("select coalesce(sum(e.total - e.paidTotal), 0) from Event e where e.creator.id = :creatorId and e.cancelled = false")
+    BigDecimal sumOpenOwedByCreator(@Param("creatorId") Long creatorId);
+
+    // in-place increment of the settlement counters; fully_settled is derived from the new counts
+    @Modifying
+    @Query(value = """
+    update events
+    set paid_total = paid_total + :paid,
+        outstanding_total = outstanding_total + :outstanding,
+        split_count = split_count + :splits,
+        settled_count = settled_count + :settled,
+        fully_settled = (split_count + :splits > 0 and settled_count + :settled = split_count + :splits)
+    where id = :id
+    """, nativeQuery = true)
+    int addToCounters(@Param("id") Long id,
+                      @Param("paid") BigDecimal paid,
+                      @Param("outstanding") BigDecimal outstanding,
+                      @Param("splits") int splits,
+                      @Param("settled") int settled);
 }
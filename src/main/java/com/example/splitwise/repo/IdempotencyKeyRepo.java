@@ -0,0 +1,52 @@
+package com.example.splitwise.repo;
+
+import com.example.splitwise.model.IdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+public interface IdempotencyKeyRepo extends JpaRepository<IdempotencyKey, String> {
+
+    // claim a key; an existing row is only taken over once expired. A key left in flight (status
+    // null) by a crashed request is not: its write may have committed, so it stays a 409 until then.
+    // returns 1 when the caller owns the key, 0 when someone else does
+    @Modifying
+    @Transactional
+    @Query(value = """
+    insert into idempotency_keys (scope_key, fingerprint, status, content_type, body, created_at)
+    values (:scopeKey, :fingerprint, null, null, null, :now)
+    on conflict (scope_key) do update
+    set fingerprint = excluded.fingerprint, status = null, content_type = null, body = null,
+        created_at = excluded.created_at
+    where idempotency_keys.created_at < :expiredBefore
+    """, nativeQuery = true)
+    int claim(@Param("scopeKey") String scopeKey,
+              @Param("fingerprint") String fingerprint,
+              @Param("now") LocalDateTime now,
+              @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    @Modifying
+    @Transactional
+    @Query("""
+    update IdempotencyKey k set k.status = :status, k.contentType = :contentType, k.body = :body
+    where k.scopeKey = :scopeKey
+    """)
+    int complete(@Param("scopeKey") String scopeKey,
+                 @Param("status") int status,
+                 @Param("contentType") String contentType,
+                 @Param("body") byte[] body);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyKey k where k.scopeKey = :scopeKey and k.status is null")
+    int release(@Param("scopeKey") String scopeKey);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyKey k where k.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") LocalDateTime before);
+}
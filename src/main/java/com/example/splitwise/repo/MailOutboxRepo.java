@@ -0,0 +1,58 @@
+package com.example.splitwise.repo;
+
+import com.example.splitwise.model.MailOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface MailOutboxRepo extends JpaRepository<MailOutbox, Long> {
+
+    // lease up to :limit due rows until :leaseUntil, in one statement. skip locked lets several
+    // dispatchers (instances) drain the outbox side by side without taking the same rows
+    @Transactional
+    @Query(value = """
+    update mail_outbox set next_attempt_at = :leaseUntil
+    where id in (
+        select id from mail_outbox
+        where status = 'PENDING' and next_attempt_at <= :now
+        order by next_attempt_at
+        limit :limit
+        for update skip locked)
+    returning *
+    """, nativeQuery = true)
+    List<MailOutbox> leaseDue(@Param("now") LocalDateTime now,
+                              @Param("leaseUntil") LocalDateTime leaseUntil,
+                              @Param("limit") int limit);
+
+    @Modifying
+    @Transactional
+    @Query("""
+    update MailOutbox m set m.status = 'SENT', m.sentAt = :now, m.attempts = m.attempts + 1, m.lastError = null
+    where m.id in :ids
+    """)
+    int markSent(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    // status stays PENDING (retry at :nextAttemptAt) or becomes FAILED once out of attempts
+    @Modifying
+    @Transactional
+    @Query("""
+    update MailOutbox m set m.status = :status, m.attempts = m.attempts + 1,
+        m.nextAttemptAt = :nextAttemptAt, m.lastError = :error
+    where m.id = :id
+    """)
+    int markAttemptFailed(@Param("id") Long id,
+                          @Param("status") String status,
+                          @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                          @Param("error") String error);
+
+    @Modifying
+    @Transactional
+    @Query("delete from MailOutbox m where m.status = 'SENT' and m.sentAt < :before")
+    int deleteSentBefore(@Param("before") LocalDateTime before);
+}
@@ -0,0 +1,64 @@
+package com.example.splitwise.repo;
+
+import com.example.splitwise.model.PairBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+public interface PairBalanceRepo extends JpaRepository<PairBalance, PairBalance.Key> {
+
+    // all counterparties of one user: range scan on idx_pair_balances_debtor_id_creditor_id (V6)
+    @Query("select p from PairBalance p where p.debtorId = :userId and p.amount <> 0")
+    List<PairBalance> findNonZeroByDebtorId(@Param("userId") Long userId);
+
+    @Query("select p.creditorId from PairBalance p where p.debtorId = :userId")
+    List<Long> findCounterpartyIds(@Param("userId") Long userId);
+
+    // in-place increment; returns 0 when the pair has not been materialized yet
+    @Modifying
+    @Query("""
+    update PairBalance p set p.amount = p.amount + :delta
+    where p.debtorId = :debtorId and p.creditorId = :creditorId
+    """)
+    int addToAmount(@Param("debtorId") Long debtorId,
+                    @Param("creditorId") Long creditorId,
+                    @Param("delta") BigDecimal delta);
+
+    // first row of a pair orientation; a row that is already there is left alone (0 returned)
+    @Modifying
+    @Query(value = """
+    insert into pair_balances (debtor_id, creditor_id, amount)
+    values (:debtorId, :creditorId, :amount)
+    on conflict (debtor_id, creditor_id) do nothing
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("debtorId") Long debtorId,
+                       @Param("creditorId") Long creditorId,
+                       @Param("amount") BigDecimal amount);
+
+    @Modifying
+    @Query("delete from PairBalance p where p.debtorId = :userId or p.creditorId = :userId")
+    void deleteAllFor(@Param("userId") Long userId);
+
+    // one-off materialization of pairs from existing splits (both orientations)
+    @Modifying
+    @Query(value = """
+    insert into pair_balances (debtor_id, creditor_id, amount)
+    select x.debtor_id, x.creditor_id, sum(x.amount)
+    from (
+        select d.user_id as debtor_id, e.creator_id as creditor_id, d.deb_amount - d.amount_paid as amount
+        from debitors d join events e on e.id = d.event_id
+        where d.settled = false and e.cancelled = false and d.user_id <> e.creator_id
+        union all
+        select e.creator_id, d.user_id, d.amount_paid - d.deb_amount
+        from debitors d join events e on e.id = d.event_id
+        where d.settled = false and e.cancelled = false and d.user_id <> e.creator_id
+    ) x
+    group by x.debtor_id, x.creditor_id
+    on conflict (debtor_id, creditor_id) do nothing
+    """, nativeQuery = true)
+    int backfill();
+}
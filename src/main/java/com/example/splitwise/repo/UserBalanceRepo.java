@@ -0,0 +1,35 @@
+package com.example.splitwise.repo;
+
+import com.example.splitwise.model.UserBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+
+public interface UserBalanceRepo extends JpaRepository<UserBalance, Long> {
+
+    // in-place increment, no read-modify-write; returns 0 when the row does not exist yet
+    @Modifying
+    @Query("""
+    update UserBalance b
+    set b.youOwe = b.youOwe + :youOwe,
+        b.owedToYou = b.owedToYou + :owedToYou
+    where b.userId = :userId
+    """)
+    int addToBalance(@Param("userId") Long userId,
+                     @Param("youOwe") BigDecimal youOwe,
+                     @Param("owedToYou") BigDecimal owedToYou);
+
+    // first row of a user; a row that is already there is left alone (0 returned)
+    @Modifying
+    @Query(value = """
+    insert into user_balances (user_id, you_owe, owed_to_you)
+    values (:userId, :youOwe, :owedToYou)
+    on conflict (user_id) do nothing
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("userId") Long userId,
+                       @Param("youOwe") BigDecimal youOwe,
+                       @Param("owedToYou") BigDecimal owedToYou);
+}
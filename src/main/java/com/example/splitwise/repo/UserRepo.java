@@ -2,11 +2,19 @@ package com.example.splitwise.repo;
 
 
 import com.example.splitwise.model.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UserRepo extends JpaRepository<User, Long> {
 
@@ -15,9 +23,71 @@ public interface UserRepo extends JpaRepository<User, Long> {
 
 
     User findUserByEmail(String email);
-    Optional<User> findByUsernameIgnoreCase(String username);
+    // lower() on both sides so idx_users_lower_username applies (derived IgnoreCase uses upper())
+    @Query("select u from User u where lower(u.username) = lower(:username)")
+    Optional<User> findByUsernameIgnoreCase(@Param("username") String username);
     Optional<User> findByUsername(String username);
 
     boolean existsByUsername(String username);
+
+    // the caller's id from the principal name, without loading the user
+    @Query("select u.id from User u where u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
+
+    // revocation check for JWTs: one column by primary key, no entity load
+    @Query("select u.tokenVersion from User u where u.id = :id")
+    Optional<Integer> findTokenVersionById(@Param("id") Long id);
+
+    // If-Match on PUT /api/users/{id}
+    @Query("select u.version from User u where u.id = :id")
+    Optional<Long> findVersionById(@Param("id") Long id);
+
+    // ETag of GET /api/users/me: the user row, its balances, its splits and the events it created
+    @Query(value = """
+    select md5(concat_ws('.', u.id, u.version, coalesce(b.you_owe, -1), coalesce(b.owed_to_you, -1),
+               (select concat_ws('.', count(*), sum(d.id), sum(coalesce(d.version, 0)))
+                from debitors d where d.user_id = u.id),
+               (select concat_ws('.', count(*), sum(e.id), sum(e.version))
+                from events e where e.creator_id = u.id)))
+    from users u left join user_balances b on b.user_id = u.id
+    where u.email = :email
+    """, nativeQuery = true)
+    Optional<String> findProfileEtagByEmail(@Param("email") String email);
+
+    // export rows, read through a server-side cursor (caller must be in a transaction)
+    record ExportRow(Long id, String username, BigDecimal total) {
+    }
+
+    @Query("select new com.example.splitwise.repo.UserRepo$ExportRow(u.id, u.username, u.total) from User u order by u.id")
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ExportRow> streamAllForExport();
+
+    // GET /api/users rows: keyset page in primary key order, three columns, no entities
+    record SummaryRow(Long id, String username, BigDecimal total) {
+    }
+
+    @Query("select new com.example.splitwise.repo.UserRepo$SummaryRow(u.id, u.username, u.total) " +
+            "from User u where u.id > :afterId order by u.id")
+    List<SummaryRow> findSummaryPage(@Param("afterId") Long afterId, Limit limit);
+
+    // GET /api/users/me header: the user row and its materialized balances (null if not built yet)
+    record ProfileRow(Long id, String email, String username, BigDecimal total, boolean emailVerified,
+                      BigDecimal youOwe, BigDecimal owedToYou) {
+    }
+
+    @Query("""
+    select new com.example.splitwise.repo.UserRepo$ProfileRow(
+        u.id, u.email, u.username, u.total, u.EmailVerified, b.youOwe, b.owedToYou)
+    from User u
+    left join UserBalance b on b.userId = u.id
+    where u.email = :email
+    """)
+    Optional<ProfileRow> findProfileRowByEmail(@Param("email") String email);
+
+    @Query("select u.id from User u where u.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
 }
 
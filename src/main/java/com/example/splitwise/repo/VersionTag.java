@@ -0,0 +1,12 @@
+package com.example.splitwise.repo;
+
+/**
+ * An entity's own @Version plus the ETag of its representation, which may also
+ * cover related rows (splits, participants). Read without loading any entity.
+ */
+public interface VersionTag {
+
+    long getVersion();
+
+    String getEtag();
+}
@@ -0,0 +1,262 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.Debitor;
+import com.example.splitwise.model.Event;
+import com.example.splitwise.model.UserBalance;
+import com.example.splitwise.repo.DebitorRepo;
+import com.example.splitwise.repo.EventRepo;
+import com.example.splitwise.repo.UserBalanceRepo;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the materialized youOwe / owedToYou balances in user_balances up to date.
+ *
+ * Writers capture the state of the splits / events they touch before and after the
+ * change, feed both into a {@link Delta} and call {@link #apply(Delta)} inside their
+ * own transaction. Only the difference is written, one UPDATE per affected user
+ * (and per affected pair, see PairBalanceService).
+ *
+ * youOwe(u)    = sum(debAmount - amountPaid) over u's unsettled splits
+ * owedToYou(u) = sum(total - paidTotal) over u's non-cancelled events
+ *
+ * The same deltas keep the settlement counters on each event (paidTotal, outstandingTotal,
+ * splitCount, settledCount, fullySettled), which is what lets owedToYou be read off the
+ * events without touching their splits.
+ */
+@Service
+public class BalanceService {
+
+    private final UserBalanceRepo balanceRepo;
+    private final DebitorRepo debitorRepo;
+    private final EventRepo eventRepo;
+    private final PairBalanceService pairBalanceService;
+    private final UpdateStreamService updateStream;
+
+    public BalanceService(UserBalanceRepo balanceRepo, DebitorRepo debitorRepo, EventRepo eventRepo,
+                          PairBalanceService pairBalanceService, UpdateStreamService updateStream) {
+        this.balanceRepo = balanceRepo;
+        this.debitorRepo = debitorRepo;
+        this.eventRepo = eventRepo;
+        this.pairBalanceService = pairBalanceService;
+        this.updateStream = updateStream;
+    }
+
+    /**
+     * What a single split contributes to balances. Take one before and one after a change.
+     */
+    public record SplitState(Long userId, Long creatorId, Long eventId, boolean cancelled,
+                             boolean settled, BigDecimal debAmount, BigDecimal amountPaid) {
+
+        public static SplitState of(Debitor d) {
+            Event e = d.getEvent();
+            Long creatorId = (e != null && e.getCreator() != null) ? e.getCreator().getId() : null;
+            return new SplitState(
+                    d.getUser() != null ? d.getUser().getId() : null,
+                    creatorId,
+                    e != null ? e.getId() : null,
+                    e != null && e.isCancelled(),
+                    d.isSettled(),
+                    nz(d.getDebAmount()),
+                    nz(d.getAmountPaid()));
+        }
+
+        /** the part of this split counted in the participant's youOwe */
+        public BigDecimal outstanding() {
+            return settled ? BigDecimal.ZERO : debAmount.subtract(amountPaid);
+        }
+
+        /** the part of this split counted in pair_balances (participant -> creator) */
+        public BigDecimal owedToCreator() {
+            if (cancelled || userId == null || creatorId == null || userId.equals(creatorId)) return BigDecimal.ZERO;
+            return outstanding();
+        }
+    }
+
+    /**
+     * A (debtor, creditor) key of pair_balances.
+     */
+    public record Pair(Long debtorId, Long creditorId) {
+    }
+
+    /**
+     * What an event (without its splits) contributes to its creator's owedToYou.
+     */
+    public record EventState(Long eventId, Long creatorId, boolean cancelled, BigDecimal total) {
+
+        public static EventState of(Event e) {
+            return new EventState(e.getId(),
+                    e.getCreator() != null ? e.getCreator().getId() : null,
+                    e.isCancelled(),
+                    nz(e.getTotal()));
+        }
+    }
+
+    /**
+     * Accumulates per-user balance changes for one unit of work.
+     * Pass null as "before" for inserts and as "after" for deletes.
+     */
+    public static class Delta {
+
+        // userId -> [youOwe, owedToYou]
+        private final Map<Long, BigDecimal[]> perUser = new LinkedHashMap<>();
+        // (lower id, higher id) -> net change of what the lower id owes the higher id
+        private final Map<Pair, BigDecimal> perPair = new LinkedHashMap<>();
+        // eventId -> change of its settlement counters
+        private final Map<Long, EventCounters> perEvent = new LinkedHashMap<>();
+
+        public Delta split(SplitState before, SplitState after) {
+            if (before != null) addSplit(before, BigDecimal.ONE.negate());
+            if (after != null) addSplit(after, BigDecimal.ONE);
+            return this;
+        }
+
+        public Delta event(EventState before, EventState after) {
+            if (before != null && !before.cancelled()) add(before.creatorId(), BigDecimal.ZERO, before.total().negate());
+            if (after != null && !after.cancelled()) add(after.creatorId(), BigDecimal.ZERO, after.total());
+            return this;
+        }
+
+        private void addSplit(SplitState s, BigDecimal sign) {
+            add(s.userId(), s.outstanding().multiply(sign), BigDecimal.ZERO);
+            // paid amounts reduce what the creator is still owed, unless the event is cancelled
+            if (!s.cancelled()) add(s.creatorId(), BigDecimal.ZERO, s.amountPaid().multiply(sign).negate());
+            addPair(s.userId(), s.creatorId(), s.owedToCreator().multiply(sign));
+            // counters cover every split of the event, cancelled or not
+            if (s.eventId() != null) {
+                EventCounters c = perEvent.computeIfAbsent(s.eventId(), k -> new EventCounters());
+                int n = sign.signum();
+                c.paid = c.paid.add(s.amountPaid().multiply(sign));
+                c.outstanding = c.outstanding.add(s.outstanding().multiply(sign));
+                c.splits += n;
+                if (s.settled()) c.settled += n;
+            }
+        }
+
+        private void addPair(Long debtorId, Long creditorId, BigDecimal amount) {
+            if (amount.signum() == 0) return;
+            // one canonical orientation per pair so A->B and B->A changes net out
+            Pair key = debtorId < creditorId ? new Pair(debtorId, creditorId) : new Pair(creditorId, debtorId);
+            BigDecimal signed = debtorId < creditorId ? amount : amount.negate();
+            perPair.merge(key, signed, BigDecimal::add);
+        }
+
+        private void add(Long userId, BigDecimal youOwe, BigDecimal owedToYou) {
+            if (userId == null) return;
+            BigDecimal[] acc = perUser.computeIfAbsent(userId, k -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            acc[0] = acc[0].add(youOwe);
+            acc[1] = acc[1].add(owedToYou);
+        }
+
+        BigDecimal youOwe(Long userId) {
+            BigDecimal[] acc = perUser.get(userId);
+            return acc == null ? BigDecimal.ZERO : acc[0];
+        }
+
+        BigDecimal owedToYou(Long userId) {
+            BigDecimal[] acc = perUser.get(userId);
+            return acc == null ? BigDecimal.ZERO : acc[1];
+        }
+
+        BigDecimal pair(Long debtorId, Long creditorId) {
+            BigDecimal v = perPair.get(new Pair(debtorId, creditorId));
+            return v == null ? BigDecimal.ZERO : v;
+        }
+
+        EventCounters counters(Long eventId) {
+            EventCounters c = perEvent.get(eventId);
+            return c == null ? new EventCounters() : c;
+        }
+
+        public boolean isEmpty() {
+            return perUser.values().stream().allMatch(a -> a[0].signum() == 0 && a[1].signum() == 0)
+                    && perPair.values().stream().allMatch(v -> v.signum() == 0)
+                    && perEvent.values().stream().allMatch(EventCounters::isZero);
+        }
+    }
+
+    /**
+     * Change of one event's settlement counters.
+     */
+    static final class EventCounters {
+        BigDecimal paid = BigDecimal.ZERO;
+        BigDecimal outstanding = BigDecimal.ZERO;
+        int splits;
+        int settled;
+
+        boolean isZero() {
+            return paid.signum() == 0 && outstanding.signum() == 0 && splits == 0 && settled == 0;
+        }
+    }
+
+    public Delta delta() {
+        return new Delta();
+    }
+
+    /**
+     * Write the accumulated changes. Must run in the caller's transaction so balances
+     * commit (or roll back) together with the split / event rows.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(Delta delta) {
+        // counters first: a balance rebuilt below reads paidTotal
+        for (Map.Entry<Long, EventCounters> entry : delta.perEvent.entrySet()) {
+            EventCounters c = entry.getValue();
+            if (c.isZero()) continue;
+            // 0 rows when the event is being deleted; its counters go with it
+            eventRepo.addToCounters(entry.getKey(), c.paid, c.outstanding, c.splits, c.settled);
+        }
+        for (Map.Entry<Long, BigDecimal[]> entry : delta.perUser.entrySet()) {
+            BigDecimal[] d = entry.getValue();
+            if (d[0].signum() == 0 && d[1].signum() == 0) continue;
+            int updated = balanceRepo.addToBalance(entry.getKey(), d[0], d[1]);
+            if (updated == 0 && !seed(entry.getKey())) {
+                // a concurrent first write or read inserted the row after the update above;
+                // its sums could not see this (uncommitted) change, so add it
+                balanceRepo.addToBalance(entry.getKey(), d[0], d[1]);
+            }
+            // the change itself, not the new totals: no extra read (clients add it to what they loaded)
+            updateStream.publish(List.of(entry.getKey()), "balance", new UpdateStreamService.BalanceUpdate(d[0], d[1]));
+        }
+        if (!delta.perPair.isEmpty()) pairBalanceService.apply(delta.perPair);
+    }
+
+    /**
+     * Read the balances of a user, materializing them on first access.
+     */
+    @Transactional
+    public UserBalance getBalance(Long userId) {
+        return balanceRepo.findById(userId).orElseGet(() -> {
+            seed(userId);
+            // ours, or the row a concurrent writer inserted first
+            return balanceRepo.findById(userId).orElseThrow();
+        });
+    }
+
+    /**
+     * Insert a user's first balance row, computed from debitors / events, unless a row exists
+     * by then. Never overwrites: under READ COMMITTED these sums miss other transactions'
+     * uncommitted changes, which those transactions add to an existing row themselves.
+     * Returns whether the row was inserted.
+     */
+    private boolean seed(Long userId) {
+        BigDecimal youOwe = nz(debitorRepo.sumOutstandingByUser(userId));
+        BigDecimal owedToYou = nz(eventRepo.sumOpenOwedByCreator(userId));
+        return balanceRepo.insertIfAbsent(userId, youOwe, owedToYou) == 1;
+    }
+
+    @Transactional
+    public void delete(Long userId) {
+        if (balanceRepo.existsById(userId)) balanceRepo.deleteById(userId);
+    }
+
+    private static BigDecimal nz(BigDecimal v) {
+        return v == null ? BigDecimal.ZERO : v;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.splitwise.service;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+
+/**
+ * Tells a request whether a read-write transaction committed on its behalf while it ran.
+ *
+ * Spring Boot registers every TransactionExecutionListener bean with the transaction
+ * manager. IdempotencyFilter uses this to decide whether a key may be given back: once
+ * the request's write has committed, running it again would repeat the write.
+ *
+ * A watch belongs to the thread that started it. Work a request hands to another thread
+ * (the continuations of PasswordHashingService) is only seen through {@link #propagating}.
+ */
+@Component
+public class CommitWatch implements TransactionExecutionListener {
+
+    private static final ThreadLocal<Watch> WATCHED = new ThreadLocal<>();
+
+    public static final class Watch {
+
+        private volatile boolean committed;
+
+        /** true if a read-write transaction committed (or tried to) under this watch */
+        public boolean committed() {
+            return committed;
+        }
+    }
+
+    public Watch start() {
+        Watch watch = new Watch();
+        WATCHED.set(watch);
+        return watch;
+    }
+
+    /** stop watching this thread; true if a read-write transaction committed since start() */
+    public boolean stop() {
+        Watch watch = WATCHED.get();
+        WATCHED.remove();
+        return watch != null && watch.committed();
+    }
+
+    /**
+     * An executor that runs its tasks under the calling thread's watch, if there is one.
+     * The watch is captured now, not when a task is submitted.
+     */
+    public Executor propagating(Executor target) {
+        Watch watch = WATCHED.get();
+        if (watch == null) return target;
+        return task -> target.execute(() -> {
+            Watch previous = WATCHED.get();
+            WATCHED.set(watch);
+            try {
+                task.run();
+            } finally {
+                if (previous != null) WATCHED.set(previous);
+                else WATCHED.remove();
+            }
+        });
+    }
+
+    @Override
+    public void afterCommit(TransactionExecution transaction, Throwable commitFailure) {
+        Watch watch = WATCHED.get();
+        // a failed commit counts too: its outcome on the database side is unknown
+        if (watch != null && !transaction.isReadOnly()) watch.committed = true;
+    }
+}
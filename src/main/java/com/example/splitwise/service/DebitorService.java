@@ -6,11 +6,11 @@ import com.example.splitwise.model.User;
 import com.example.splitwise.repo.DebitorRepo;
 import com.example.splitwise.repo.EventRepo;
 import com.example.splitwise.repo.UserRepo;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Service
 public class DebitorService {
@@ -18,11 +18,16 @@ public class DebitorService {
     private final DebitorRepo debitorRepo;
     private final EventRepo eventRepo;
     private final UserRepo userRepo;
+    private final BalanceService balanceService;
+    private final UpdateStreamService updateStream;
 
-    public DebitorService(DebitorRepo debitorRepo, EventRepo eventRepo, UserRepo userRepo){
+    public DebitorService(DebitorRepo debitorRepo, EventRepo eventRepo, UserRepo userRepo,
+                          BalanceService balanceService, UpdateStreamService updateStream){
         this.debitorRepo = debitorRepo;
         this.eventRepo = eventRepo;
         this.userRepo = userRepo;
+        this.balanceService = balanceService;
+        this.updateStream = updateStream;
     }
 
     /**
@@ -48,6 +53,7 @@ public class DebitorService {
         // keep bidirectional relation consistent (in-memory)
         event.getSplits().add(saved);
 
+        balanceService.apply(balanceService.delta().split(null, BalanceService.SplitState.of(saved)));
         return saved;
     }
 
@@ -56,9 +62,11 @@ public class DebitorService {
      */
     @Transactional
     public void deleteDebitor(Long debitorId){
-        if (!debitorRepo.existsById(debitorId))
-            throw new IllegalArgumentException("Debitor not found: " + debitorId);
-        debitorRepo.deleteById(debitorId);
+        Debitor existing = debitorRepo.findById(debitorId)
+                .orElseThrow(() -> new IllegalArgumentException("Debitor not found: " + debitorId));
+        BalanceService.SplitState before = BalanceService.SplitState.of(existing);
+        debitorRepo.delete(existing);
+        balanceService.apply(balanceService.delta().split(before, null));
     }
 
     /**
@@ -71,23 +79,22 @@ public class DebitorService {
     }
 
     /**
-     * List all debitors (global).
+     * List debitors (global) in id order, one keyset page at a time.
      */
     @Transactional(readOnly = true)
-    public List<Debitor> getAllDebitors(){
-        return debitorRepo.findAll();
+    public KeysetPage<Debitor> getDebitors(long afterId, int limit){
+        return KeysetPage.of(debitorRepo.findByIdGreaterThanOrderById(afterId, Limit.of(limit + 1)), limit, Debitor::getId);
     }
 
     /**
-     * List debitors for a specific event.
-     * Uses in-transaction filtering (safe for small datasets).
+     * List debitors for a specific event, in id order, one page at a time.
+     * settled / included are optional filters (null = any).
      */
     @Transactional(readOnly = true)
-    public List<Debitor> getDebitorsByEvent(Long eventId){
-        // if your DebitorRepo has a method like findByEventId, replace this with that call.
-        return debitorRepo.findAll().stream()
-                .filter(d -> d.getEvent() != null && eventId.equals(d.getEvent().getId()))
-                .collect(Collectors.toList());
+    public KeysetPage<Debitor> getDebitorsByEvent(Long eventId, long afterId, Boolean settled, Boolean included, int limit){
+        if (!eventRepo.existsById(eventId)) throw new IllegalArgumentException("Event not found");
+        List<Debitor> rows = debitorRepo.findPageByEvent(eventId, afterId, settled, included, Limit.of(limit + 1));
+        return KeysetPage.of(rows, limit, Debitor::getId);
     }
 
     /**
@@ -98,6 +105,8 @@ public class DebitorService {
         Debitor existing = debitorRepo.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Debitor not found: " + id));
 
+        BalanceService.SplitState before = BalanceService.SplitState.of(existing);
+
         // update only safe/simple fields
         if (payload.getDebAmount() != null) existing.setDebAmount(payload.getDebAmount());
         if (payload.getAmountPaid() != null) existing.setAmountPaid(payload.getAmountPaid());
@@ -105,6 +114,10 @@ public class DebitorService {
         existing.setSettled(payload.isSettled());
         if (payload.getPaidAt() != null) existing.setPaidAt(payload.getPaidAt());
 
-        return debitorRepo.save(existing);
+        Debitor saved = debitorRepo.save(existing);
+        BalanceService.SplitState after = BalanceService.SplitState.of(saved);
+        balanceService.apply(balanceService.delta().split(before, after));
+        updateStream.splitChanged(saved.getId(), after);
+        return saved;
     }
 }
@@ -1,125 +1,126 @@
 package com.example.splitwise.service;
 
-import jakarta.mail.MessagingException;
-import jakarta.mail.internet.InternetAddress;
-import jakarta.mail.internet.MimeMessage;
+import com.example.splitwise.model.MailOutbox;
+import com.example.splitwise.model.User;
+import com.example.splitwise.repo.MailOutboxRepo;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Composes outgoing mail and queues it in the mail_outbox table; MailOutboxDispatcher
+ * does the SMTP part in the background. Queuing joins the caller's transaction, so a
+ * mail goes out only if the change that triggered it commits, and the caller never
+ * waits on (or fails because of) the SMTP server.
+ *
+ * Bodies come from the precompiled templates in classpath:mail (see MailTemplates).
+ * Payment / event notifications are sent only with app.notifications.enabled.
+ */
 @Service
 public class EmailService {
 
-    private final JavaMailSender mailSender;
-
-    @Value("${app.mail.from}")
-    private String fromEmail;
-
-    @Value("${app.mail.from-name}")
-    private String fromName;
+    private final MailOutboxRepo outboxRepo;
+    private final boolean notificationsEnabled;
+    private final MailTemplates.Template verification;
+    private final MailTemplates.Template paymentReceived;
+    private final MailTemplates.Template eventCreated;
+    private final MailTemplates.Template paymentReminder;
 
     @Value("${app.backend.url}")
     private String backendUrl;
 
-    public EmailService(JavaMailSender mailSender) {
-        this.mailSender = mailSender;
+    public EmailService(MailOutboxRepo outboxRepo, MailTemplates templates,
+                        @Value("${app.notifications.enabled:false}") boolean notificationsEnabled) {
+        this.outboxRepo = outboxRepo;
+        this.notificationsEnabled = notificationsEnabled;
+        this.verification = templates.compile("verification", "title", "name", "link");
+        this.paymentReceived = templates.compile("payment-received", "title", "name", "payer", "amount", "event", "remaining");
+        this.eventCreated = templates.compile("event-created", "title", "name", "creator", "event", "total", "share");
+        this.paymentReminder = templates.compile("payment-reminder", "title", "name", "creditor", "amount", "event");
+    }
+
+    public boolean notificationsEnabled() {
+        return notificationsEnabled;
+    }
+
+    /**
+     * Name shown for a user in mail: username, else e-mail.
+     */
+    public static String nameOf(User u) {
+        if (u == null) return null;
+        return u.getUsername() != null && !u.getUsername().isBlank() ? u.getUsername() : u.getEmail();
+    }
+
+    /**
+     * One reminder of a batch: who owes how much to whom, for which event.
+     */
+    public record Reminder(String toEmail, String name, String creditor, BigDecimal amount, String event) {
     }
 
+    @Transactional
     public void sendVerificationEmail(String toEmail, String username, String token) {
         String verifyLink = backendUrl + "/api/auth/verify-email?token=" + token;
-        String subject = "Verify your SplitEase account";
-
-        String html = buildVerificationHtml(username, verifyLink);
+        String title = "Verify your email address";
+        enqueue(toEmail, "Verify your SplitEase account", verification.render(title, displayName(username), verifyLink));
+    }
 
-        try {
-            MimeMessage mimeMessage = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, "UTF-8");
+    @Transactional
+    public void notifyPaymentReceived(String toEmail, String name, String payer, BigDecimal amount,
+                                      String event, BigDecimal remaining) {
+        if (!notificationsEnabled || toEmail == null) return;
+        String title = "Payment received";
+        enqueue(toEmail, payer + " paid you " + money(amount),
+                paymentReceived.render(title, displayName(name), payer, money(amount), event, money(remaining)));
+    }
 
-            helper.setTo(toEmail);
-            helper.setSubject(subject);
-            helper.setText(html, true); // HTML body
-            helper.setFrom(new InternetAddress(fromEmail, fromName));
+    @Transactional
+    public void notifyEventCreated(String toEmail, String name, String creator, String event,
+                                   BigDecimal total, BigDecimal share) {
+        if (!notificationsEnabled || toEmail == null) return;
+        String title = "You were added to " + event;
+        enqueue(toEmail, title,
+                eventCreated.render(title, displayName(name), creator, event, money(total), money(share)));
+    }
 
-            mailSender.send(mimeMessage);
-        } catch (MessagingException | java.io.UnsupportedEncodingException e) {
-            throw new RuntimeException("Failed to send verification email", e);
+    /**
+     * Queue a batch of payment reminders, rendered through one reused buffer and saved as one JDBC batch.
+     */
+    @Transactional
+    public int sendPaymentReminders(List<Reminder> reminders) {
+        MailTemplates.Buffer buffer = new MailTemplates.Buffer(8192);
+        LocalDateTime now = LocalDateTime.now();
+        List<MailOutbox> rows = new ArrayList<>(reminders.size());
+        for (Reminder r : reminders) {
+            if (r.toEmail() == null || r.toEmail().isBlank()) continue;
+            buffer.reset();
+            paymentReminder.render(buffer, "Payment reminder", displayName(r.name()), r.creditor(), money(r.amount()), r.event());
+            rows.add(new MailOutbox(r.toEmail(), "Reminder: you owe " + money(r.amount()) + " for " + r.event(),
+                    buffer.toString(), now));
         }
+        outboxRepo.saveAll(rows);
+        return rows.size();
+    }
+
+    /**
+     * Queue an HTML mail. Sent by the dispatcher once the surrounding transaction commits.
+     */
+    @Transactional
+    public void enqueue(String toEmail, String subject, String html) {
+        if (toEmail == null || toEmail.isBlank()) throw new IllegalArgumentException("Recipient is required");
+        outboxRepo.save(new MailOutbox(toEmail, subject, html, LocalDateTime.now()));
+    }
+
+    private static String displayName(String name) {
+        return (name != null && !name.isBlank()) ? name : "there";
     }
 
-    private String buildVerificationHtml(String username, String verifyLink) {
-        String name = (username != null && !username.isBlank()) ? username : "there";
-
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("<!doctype html>");
-        sb.append("<html>");
-        sb.append("<head>");
-        sb.append("<meta charset=\"UTF-8\" />");
-        sb.append("<title>Verify your SplitEase account</title>");
-        sb.append("</head>");
-        sb.append("<body style=\"margin:0;padding:0;background-color:#0b1120;")
-                .append("font-family:system-ui,-apple-system,BlinkMacSystemFont,'Segoe UI',sans-serif;\">");
-
-        sb.append("<table width=\"100%\" cellpadding=\"0\" cellspacing=\"0\" style=\"padding:40px 0;\">")
-                .append("<tr><td align=\"center\">");
-
-        sb.append("<table width=\"520\" cellpadding=\"0\" cellspacing=\"0\" ")
-                .append("style=\"background:rgba(255,255,255,0.05);")
-                .append(" border:1px solid rgba(255,255,255,0.07);")
-                .append(" border-radius:16px;padding:32px;")
-                .append(" box-shadow:0px 0px 35px rgba(0,0,0,0.55);\">");
-
-        /* ===========================
-   ✨ STYLISH TEXT HEADER (NO LOGO)
-   =========================== */
-        sb.append("<tr><td align=\"center\" style=\"padding-bottom:28px;\">")
-                .append("<div style=\"font-size:28px;font-weight:800;color:#38f8b0;")
-                .append("letter-spacing:1px;font-family:'Poppins','Inter',sans-serif;")
-                .append("text-shadow:0px 0px 12px rgba(0,255,180,0.45);\">")
-                .append("₹ SplitEase")
-                .append("</div>")
-                .append("<div style=\"color:#94a3b8;font-size:13px;margin-top:6px;\">Smart Expense Sharing</div>")
-                .append("</td></tr>");
-
-        /* Heading */
-        sb.append("<tr><td style=\"padding-bottom:8px;\">")
-                .append("<h1 style=\"margin:0;color:#e5e7eb;font-size:20px;font-weight:600;\">")
-                .append("Verify your email address")
-                .append("</h1></td></tr>");
-
-        /* Body */
-        sb.append("<tr><td style=\"padding-bottom:18px;\">")
-                .append("<p style=\"margin:0;color:#9ca3af;font-size:14px;line-height:1.6;\">")
-                .append("Hey ").append(name).append(",<br><br>")
-                .append("Welcome to SplitEase — your smart, transparent bill-splitting wallet.<br>")
-                .append("Click below to activate your account and start tracking expenses smoothly.")
-                .append("</p></td></tr>");
-
-        /* CTA BUTTON */
-        sb.append("<tr><td align=\"center\" style=\"padding:20px 0 28px;\">")
-                .append("<a href=\"").append(verifyLink).append("\" ")
-                .append("style=\"background:linear-gradient(135deg,#00E5FF,#00FF7F);")
-                .append(" padding:14px 34px;border-radius:8px;color:#001B22;")
-                .append(" font-weight:700;font-size:15px;text-decoration:none;")
-                .append(" box-shadow:0 0 22px rgba(0,255,204,0.45);\">")
-                .append("Verify Email")
-                .append("</a></td></tr>");
-
-        /* Extra link */
-        sb.append("<tr><td style=\"padding-bottom:20px;\">")
-                .append("<p style=\"margin:0;color:#6b7280;font-size:12px;line-height:1.6;\">")
-                .append("Or copy and paste this link manually:<br>")
-                .append("<a href=\"").append(verifyLink).append("\" style=\"color:#00E5FF;text-decoration:none;\">")
-                .append(verifyLink).append("</a></p></td></tr>");
-
-        sb.append("<tr><td><p style=\"margin:0;color:#475569;font-size:11px;\">")
-                .append("If this wasn't you, ignore the email safely.")
-                .append("</p></td></tr>");
-
-        sb.append("</table></td></tr></table></body></html>");
-
-        return sb.toString();
+    private static String money(BigDecimal v) {
+        return v != null ? v.toPlainString() : "0";
     }
 }
 
@@ -6,14 +6,23 @@ import com.example.splitwise.model.User;
 import com.example.splitwise.repo.DebitorRepo;
 import com.example.splitwise.repo.EventRepo;
 import com.example.splitwise.repo.UserRepo;
+import com.example.splitwise.repo.VersionTag;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class EventService {
@@ -21,11 +30,21 @@ public class EventService {
     private final EventRepo eventRepo;
     private final DebitorRepo debitorRepo;
     private final UserRepo userRepo;
-
-    public EventService(EventRepo eventRepo, DebitorRepo debitorRepo, UserRepo userRepo){
+    private final BalanceService balanceService;
+    private final EmailService emailService;
+    private final UpdateStreamService updateStream;
+    private final Duration reminderCooldown;
+
+    public EventService(EventRepo eventRepo, DebitorRepo debitorRepo, UserRepo userRepo,
+                        BalanceService balanceService, EmailService emailService, UpdateStreamService updateStream,
+                        @Value("${app.reminders.cooldown-hours:24}") long reminderCooldownHours){
         this.eventRepo = eventRepo;
         this.debitorRepo = debitorRepo;
         this.userRepo = userRepo;
+        this.balanceService = balanceService;
+        this.emailService = emailService;
+        this.updateStream = updateStream;
+        this.reminderCooldown = Duration.ofHours(reminderCooldownHours);
     }
 
     /**
@@ -37,11 +56,10 @@ public class EventService {
         e.setCreatedAt(LocalDateTime.now());
 
         // ensure each debitor links to a managed User and the event
+        Map<Long, User> users = participantsById(splits);
         List<Debitor> toPersist = new ArrayList<>();
         for (Debitor d : splits){
-            User u = userRepo.findById(d.getUser().getId())
-                    .orElseThrow(() -> new IllegalArgumentException("Participant user not found: " + d.getUser().getId()));
-            d.setUser(u);
+            d.setUser(users.get(d.getUser().getId()));
             d.setEvent(e);      // attach to the unsaved event
             toPersist.add(d);
         }
@@ -51,12 +69,33 @@ public class EventService {
         e.getSplits().addAll(toPersist);
 
         // saving event will cascade and save debitors
-        return eventRepo.save(e);
+        Event saved = eventRepo.save(e);
+
+        BalanceService.Delta delta = balanceService.delta()
+                .event(null, BalanceService.EventState.of(saved));
+        saved.getSplits().forEach(d -> delta.split(null, BalanceService.SplitState.of(d)));
+        balanceService.apply(delta);
+        saved.recount(); // the counters were incremented in the database, not on this instance
+        announce(saved, "created");
+
+        // queued in this transaction, so a rolled back create sends nothing
+        if (emailService.notificationsEnabled()) {
+            User creator = saved.getCreator();
+            for (Debitor d : saved.getSplits()) {
+                User u = d.getUser();
+                if (!d.isIncluded() || u == null || (creator != null && u.getId().equals(creator.getId()))) continue;
+                emailService.notifyEventCreated(u.getEmail(), EmailService.nameOf(u), EmailService.nameOf(creator),
+                        saved.getTitle(), saved.getTotal(), d.getDebAmount());
+            }
+        }
+        return saved;
     }
     @Transactional
     public Debitor addDebitor(Long eventId, Debitor d) {
         Debitor ready = addDebitorLogic(eventId, d);
-        return debitorRepo.save(ready);
+        Debitor saved = debitorRepo.save(ready);
+        balanceService.apply(balanceService.delta().split(null, BalanceService.SplitState.of(saved)));
+        return saved;
     }
 
     @Transactional(readOnly = true)
@@ -68,10 +107,11 @@ public class EventService {
 
     @Transactional
     public void deleteDebitor(Long debitorId) {
-        if (!debitorRepo.existsById(debitorId)) {
-            throw new IllegalArgumentException("Debitor not found");
-        }
-        debitorRepo.deleteById(debitorId);
+        Debitor existing = debitorRepo.findById(debitorId)
+                .orElseThrow(() -> new IllegalArgumentException("Debitor not found"));
+        BalanceService.SplitState before = BalanceService.SplitState.of(existing);
+        debitorRepo.delete(existing);
+        balanceService.apply(balanceService.delta().split(before, null));
     }
 
     /**
@@ -122,22 +162,125 @@ public class EventService {
 //        return eventRepo.findById(id).orElseThrow(() -> new IllegalArgumentException("Event not found"));
 //    }
 
+    /**
+     * What GET /api/events/{id} returns. Splits in id order; userId / username are null for a split without a user.
+     */
+    public record EventDetail(Long id, String title, BigDecimal total, boolean cancelled, LocalDateTime createdAt,
+                              Long creatorId, String creatorUsername, List<SplitDetail> splits) {
+    }
+
+    public record SplitDetail(Long id, BigDecimal debAmount, BigDecimal amountPaid, BigDecimal remaining,
+                              boolean included, boolean settled, LocalDateTime paidAt, Long userId, String username) {
+    }
+
+    /**
+     * The event view from one projection query (no managed entities, nothing to dirty-check).
+     */
     @Transactional(readOnly = true)
-    public List<Event> getAllEvents(){
-        return eventRepo.findAll();
+    public EventDetail getEventDetail(Long id){
+        List<EventRepo.DetailRow> rows = eventRepo.findDetailRows(id);
+        if (rows.isEmpty()) throw new IllegalArgumentException("Event not found");
+
+        List<SplitDetail> splits = new ArrayList<>(rows.size());
+        for (EventRepo.DetailRow r : rows) {
+            if (r.debitorId() == null) continue; // event without splits
+            BigDecimal debAmount = r.debAmount() != null ? r.debAmount() : BigDecimal.ZERO;
+            BigDecimal amountPaid = r.amountPaid() != null ? r.amountPaid() : BigDecimal.ZERO;
+            splits.add(new SplitDetail(r.debitorId(), r.debAmount(), r.amountPaid(), debAmount.subtract(amountPaid),
+                    Boolean.TRUE.equals(r.included()), Boolean.TRUE.equals(r.settled()), r.paidAt(),
+                    r.userId(), r.username()));
+        }
+        EventRepo.DetailRow e = rows.get(0);
+        return new EventDetail(e.id(), e.title(), e.total(), e.cancelled(), e.createdAt(),
+                e.creatorId(), e.creatorUsername(), splits);
+    }
+
+    /**
+     * The event's @Version and the ETag of its full view (event, splits, users), without loading any of them.
+     */
+    @Transactional(readOnly = true)
+    public Optional<VersionTag> getVersionTag(Long id){
+        return eventRepo.findVersionTagById(id);
+    }
+
+    /**
+     * Events in id order, one keyset page at a time, with their splits.
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<Event> getEvents(long afterId, int limit){
+        List<Long> ids = eventRepo.findPageIds(afterId, Limit.of(limit + 1));
+        KeysetPage<Long> page = KeysetPage.of(ids, limit, id -> id);
+        List<Event> events = page.items().isEmpty() ? List.of() : eventRepo.findAllWithSplitsByIdIn(page.items());
+        return new KeysetPage<>(events, page.next());
     }
 
     @Transactional
     public void deleteEvent(Long id){
-        if (!eventRepo.existsById(id)) throw new IllegalArgumentException("Event not found");
-        eventRepo.deleteById(id); // cascades to splits (orphanRemoval)
+        Event e = eventRepo.findByIdWithSplitsAndUsers(id)
+                .orElseThrow(() -> new IllegalArgumentException("Event not found"));
+
+        BalanceService.Delta delta = balanceService.delta()
+                .event(BalanceService.EventState.of(e), null);
+        e.getSplits().forEach(d -> delta.split(BalanceService.SplitState.of(d), null));
+
+        eventRepo.delete(e); // cascades to splits (orphanRemoval)
+        balanceService.apply(delta);
     }
 
     @Transactional
     public Event cancelEvent(Long id){
         Event e = getEvent(id);
+        BalanceService.EventState eventBefore = BalanceService.EventState.of(e);
+        List<BalanceService.SplitState> splitsBefore = e.getSplits().stream()
+                .map(BalanceService.SplitState::of).toList();
+
         e.setCancelled(true);
-        return eventRepo.save(e);
+        Event saved = eventRepo.save(e);
+
+        BalanceService.Delta delta = balanceService.delta()
+                .event(eventBefore, BalanceService.EventState.of(saved));
+        splitsBefore.forEach(s -> delta.split(s, null));
+        saved.getSplits().forEach(d -> delta.split(null, BalanceService.SplitState.of(d)));
+        balanceService.apply(delta);
+        saved.recount();
+        announce(saved, "cancelled");
+        return saved;
+    }
+
+    // creator and participants, on commit (see UpdateStreamService)
+    private void announce(Event e, String status) {
+        Set<Long> userIds = new LinkedHashSet<>();
+        if (e.getCreator() != null) userIds.add(e.getCreator().getId());
+        e.getSplits().forEach(d -> { if (d.getUser() != null) userIds.add(d.getUser().getId()); });
+        updateStream.publish(userIds, "event", new UpdateStreamService.EventUpdate(e.getId(), e.getTitle(), status));
+    }
+
+    /**
+     * Queue a payment reminder for every included, unsettled split of the event (the creator's own excluded),
+     * skipping splits reminded within the cooldown. Only the event's creator may send them.
+     * Returns how many reminders were queued.
+     */
+    @Transactional
+    public int sendReminders(Long id, Long requesterId){
+        Event e = getEvent(id);
+        User creator = e.getCreator();
+        if (creator == null || !creator.getId().equals(requesterId)) {
+            throw new AccessDeniedException("Only the event's creator can send reminders");
+        }
+        if (e.isCancelled()) throw new IllegalStateException("Event is cancelled");
+        String creditor = EmailService.nameOf(creator);
+        LocalDateTime now = LocalDateTime.now();
+
+        List<EmailService.Reminder> reminders = new ArrayList<>();
+        for (Debitor d : e.getSplits()) {
+            User u = d.getUser();
+            if (!d.isIncluded() || d.isSettled() || u == null) continue;
+            if (u.getId().equals(creator.getId())) continue;
+            if (debitorRepo.markReminded(d.getId(), now, now.minus(reminderCooldown)) == 0) continue;
+            reminders.add(new EmailService.Reminder(u.getEmail(), EmailService.nameOf(u), creditor,
+                    d.getRemaining(), e.getTitle()));
+        }
+        return reminders.isEmpty() ? 0 : emailService.sendPaymentReminders(reminders);
     }
 
     // helper: recompute shares if you want to create splits inside service (equal split)
@@ -163,18 +306,21 @@ public class EventService {
     }
     @Transactional
     public Event save(Event existing) {
+        // capture what is currently stored so balances can be adjusted by the difference
+        BalanceService.Delta delta = balanceService.delta();
+        if (existing.getId() != null) {
+            eventRepo.findById(existing.getId()).ifPresent(current -> {
+                delta.event(BalanceService.EventState.of(current), null);
+                current.getSplits().forEach(d -> delta.split(BalanceService.SplitState.of(d), null));
+            });
+        }
+
         // ensure each split references a managed User and has the event set
         if (existing.getSplits() != null) {
+            Map<Long, User> users = participantsById(existing.getSplits());
             List<Debitor> fixed = new ArrayList<>();
             for (Debitor d : existing.getSplits()) {
-                if (d.getUser() != null && d.getUser().getId() != null) {
-                    User managed = userRepo.findById(d.getUser().getId())
-                            .orElseThrow(() -> new IllegalArgumentException("Participant user not found: " + d.getUser().getId()));
-                    d.setUser(managed);
-                } else {
-                    // allow debitor without user? prefer to reject — safer to throw
-                    throw new IllegalArgumentException("Debitor.user.id is required");
-                }
+                d.setUser(users.get(d.getUser().getId()));
                 d.setEvent(existing);
                 fixed.add(d);
             }
@@ -183,9 +329,33 @@ public class EventService {
             existing.getSplits().addAll(fixed);
         }
         // persist event (will cascade to debitors if mapped)
-        return eventRepo.save(existing);
-    }
-
+        Event saved = eventRepo.save(existing);
 
+        delta.event(null, BalanceService.EventState.of(saved));
+        saved.getSplits().forEach(d -> delta.split(null, BalanceService.SplitState.of(d)));
+        balanceService.apply(delta);
+        saved.recount();
+        return saved;
+    }
 
+    /**
+     * Managed users for all splits, fetched with one query. Every split must name a user
+     * (a debitor without one is rejected) and all unknown ids are reported at once.
+     */
+    private Map<Long, User> participantsById(List<Debitor> splits) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Debitor d : splits) {
+            if (d.getUser() == null || d.getUser().getId() == null) {
+                throw new IllegalArgumentException("Debitor.user.id is required");
+            }
+            ids.add(d.getUser().getId());
+        }
+        Map<Long, User> byId = new HashMap<>();
+        userRepo.findAllById(ids).forEach(u -> byId.put(u.getId(), u));
+        if (byId.size() < ids.size()) {
+            List<Long> missing = ids.stream().filter(id -> !byId.containsKey(id)).toList();
+            throw new IllegalArgumentException("Participant user not found: " + missing);
+        }
+        return byId;
+    }
 }
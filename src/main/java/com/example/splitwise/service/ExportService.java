@@ -0,0 +1,284 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.repo.EventRepo;
+import com.example.splitwise.repo.UserRepo;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.StreamWriteFeature;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Streaming JSON exports of whole tables, and per-user CSV statements.
+ *
+ * Rows come from a forward-only cursor (repository Stream with a fetch size) as
+ * projection records, never as managed entities, and go straight to the response
+ * through Jackson's streaming generator. Heap use does not depend on the row count.
+ * Call from inside a StreamingResponseBody: the read transaction lives as long as
+ * the response is being written.
+ */
+@Service
+public class ExportService {
+
+    // push what the generator has buffered to the client every so many rows
+    private static final int FLUSH_EVERY = 500;
+
+    private final UserRepo userRepo;
+    private final EventRepo eventRepo;
+    private final ObjectWriter writer;
+    // statement rows: same fetch size as the repository exports, so the driver reads through a cursor
+    private final NamedParameterJdbcTemplate cursorJdbc;
+
+    public ExportService(UserRepo userRepo, EventRepo eventRepo, JsonMapper jsonMapper, DataSource dataSource) {
+        this.userRepo = userRepo;
+        this.eventRepo = eventRepo;
+        // the servlet container owns the response stream
+        this.writer = jsonMapper.writer().without(StreamWriteFeature.AUTO_CLOSE_TARGET);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.setFetchSize(FLUSH_EVERY);
+        this.cursorJdbc = new NamedParameterJdbcTemplate(jdbc);
+    }
+
+    /**
+     * [{id, username, total}, ...] in id order.
+     */
+    @Transactional(readOnly = true)
+    public void writeUsers(OutputStream out) {
+        try (Stream<UserRepo.ExportRow> rows = userRepo.streamAllForExport();
+             JsonGenerator gen = writer.createGenerator(out)) {
+            gen.writeStartArray();
+            int n = 0;
+            for (Iterator<UserRepo.ExportRow> it = rows.iterator(); it.hasNext(); ) {
+                UserRepo.ExportRow r = it.next();
+                gen.writeStartObject();
+                gen.writeNumberProperty("id", r.id());
+                gen.writeStringProperty("username", r.username());
+                writeDecimal(gen, "total", r.total());
+                gen.writeEndObject();
+                if (++n % FLUSH_EVERY == 0) gen.flush();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * [{id, title, createdAt, creatorId, total, cancelled, splits: [...]}, ...] in id order.
+     * The cursor returns one row per split, ordered by event, so an event is complete
+     * as soon as the event id changes.
+     */
+    @Transactional(readOnly = true)
+    public void writeEvents(OutputStream out) {
+        try (Stream<EventRepo.ExportRow> rows = eventRepo.streamAllForExport();
+             JsonGenerator gen = writer.createGenerator(out)) {
+            gen.writeStartArray();
+            Long current = null;
+            int n = 0;
+            for (Iterator<EventRepo.ExportRow> it = rows.iterator(); it.hasNext(); ) {
+                EventRepo.ExportRow r = it.next();
+                if (!r.eventId().equals(current)) {
+                    if (current != null) {
+                        gen.writeEndArray();
+                        gen.writeEndObject();
+                    }
+                    current = r.eventId();
+                    gen.writeStartObject();
+                    gen.writeNumberProperty("id", r.eventId());
+                    gen.writeStringProperty("title", r.title());
+                    writeTimestamp(gen, "createdAt", r.createdAt());
+                    if (r.creatorId() != null) gen.writeNumberProperty("creatorId", r.creatorId());
+                    else gen.writeNullProperty("creatorId");
+                    writeDecimal(gen, "total", r.total());
+                    gen.writeBooleanProperty("cancelled", r.cancelled());
+                    gen.writeArrayPropertyStart("splits");
+                }
+                if (r.debitorId() != null) {
+                    gen.writeStartObject();
+                    gen.writeNumberProperty("id", r.debitorId());
+                    if (r.userId() != null) gen.writeNumberProperty("userId", r.userId());
+                    else gen.writeNullProperty("userId");
+                    writeDecimal(gen, "debAmount", r.debAmount());
+                    writeDecimal(gen, "amountPaid", r.amountPaid());
+                    gen.writeBooleanProperty("settled", Boolean.TRUE.equals(r.settled()));
+                    gen.writeBooleanProperty("included", Boolean.TRUE.equals(r.included()));
+                    gen.writeEndObject();
+                }
+                if (++n % FLUSH_EVERY == 0) gen.flush();
+            }
+            if (current != null) {
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    // Everything that moves a user's net position (positive: others owe the user), one row per entry:
+    //   share            the user's split on someone else's event   -debAmount
+    //   lent             someone's split on the user's event        +debAmount
+    //   payment_sent     a payment the user made                    +amount
+    //   payment_received a payment the user received                -amount
+    // Splits are dated by their event's createdAt. Cancelled events, payments made on them and payments
+    // to oneself are left out.
+    //
+    // This is a ledger of full shares and payments, not a replay of BalanceService: the stored youOwe
+    // drops whatever is left of a split once it is marked settled, and owedToYou is the event's total
+    // minus payments rather than the sum of its splits. A split settled without full payment, or an
+    // event whose total differs from its splits, therefore puts the last running balance off the
+    // owedToYou - youOwe of /api/users/me by that difference.
+    private static final String STATEMENT_ENTRIES = """
+            select e.created_at as ts, 'share' as type, d.id as ref_id, e.id as event_id,
+                   e.creator_id as counterparty_id, -coalesce(d.deb_amount, 0) as amount
+            from debitors d join events e on e.id = d.event_id
+            where d.user_id = :userId and e.creator_id <> :userId and e.cancelled = false
+            union all
+            select e.created_at, 'lent', d.id, e.id, d.user_id, coalesce(d.deb_amount, 0)
+            from events e join debitors d on d.event_id = e.id
+            where e.creator_id = :userId and d.user_id <> :userId and e.cancelled = false
+            union all
+            select t.ts, 'payment_sent', t.id, t.event_id, t.to_user_id, coalesce(t.amount, 0)
+            from transactions t left join events e on e.id = t.event_id
+            where t.from_user_id = :userId and t.to_user_id is distinct from :userId and e.cancelled is not true
+            union all
+            select t.ts, 'payment_received', t.id, t.event_id, t.from_user_id, -coalesce(t.amount, 0)
+            from transactions t left join events e on e.id = t.event_id
+            where t.to_user_id = :userId and t.from_user_id is distinct from :userId and e.cancelled is not true
+            """;
+
+    private static final String CSV_HEADER = "date,type,ref_id,event_id,event,counterparty_id,counterparty,amount,balance\n";
+
+    /**
+     * CSV statement of a user's activity with ts in [from, to) (null: unbounded), oldest first,
+     * each row carrying the running balance. Rows before {@code from} are summed in the database
+     * into the opening balance; the rest come through a cursor and the running balance is added
+     * up as they are written, so memory use does not depend on the row count. Compression, if
+     * any, is up to the caller's stream.
+     */
+    @Transactional(readOnly = true)
+    public void writeStatement(Long userId, LocalDateTime from, LocalDateTime to, OutputStream out) {
+        MapSqlParameterSource params = new MapSqlParameterSource("userId", userId);
+        BigDecimal opening = BigDecimal.ZERO;
+        if (from != null) {
+            params.addValue("from", Timestamp.valueOf(from));
+            opening = cursorJdbc.queryForObject(
+                    "select coalesce(sum(x.amount), 0) from (" + STATEMENT_ENTRIES + ") x where x.ts < :from",
+                    params, BigDecimal.class);
+        }
+        StringBuilder sql = new StringBuilder()
+                .append("select x.ts, x.type, x.ref_id, x.event_id, ev.title, x.counterparty_id, u.username, x.amount")
+                .append(" from (").append(STATEMENT_ENTRIES).append(") x")
+                .append(" left join events ev on ev.id = x.event_id")
+                .append(" left join users u on u.id = x.counterparty_id")
+                .append(" where true");
+        if (from != null) sql.append(" and x.ts >= :from");
+        if (to != null) {
+            sql.append(" and x.ts < :to");
+            params.addValue("to", Timestamp.valueOf(to));
+        }
+        sql.append(" order by x.ts, x.type, x.ref_id");
+
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            w.write(CSV_HEADER);
+            if (from != null) w.write(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(from));
+            w.write(",opening_balance,,,,,,," + opening.toPlainString() + "\n");
+            cursorJdbc.query(sql.toString(), params, new StatementWriter(w, opening));
+            w.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes each statement row as it comes off the cursor; holds nothing but the running balance.
+     */
+    private static final class StatementWriter implements RowCallbackHandler {
+
+        private final Writer w;
+        private BigDecimal balance;
+        private int n;
+
+        StatementWriter(Writer w, BigDecimal opening) {
+            this.w = w;
+            this.balance = opening;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            BigDecimal amount = rs.getBigDecimal("amount");
+            balance = balance.add(amount);
+            Timestamp ts = rs.getTimestamp("ts");
+            try {
+                if (ts != null) w.write(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(ts.toLocalDateTime()));
+                w.write(',');
+                w.write(rs.getString("type"));
+                w.write(',');
+                w.write(Long.toString(rs.getLong("ref_id")));
+                w.write(',');
+                writeId(rs.getObject("event_id", Long.class));
+                w.write(',');
+                writeText(rs.getString("title"));
+                w.write(',');
+                writeId(rs.getObject("counterparty_id", Long.class));
+                w.write(',');
+                writeText(rs.getString("username"));
+                w.write(',');
+                w.write(amount.toPlainString());
+                w.write(',');
+                w.write(balance.toPlainString());
+                w.write('\n');
+                if (++n % FLUSH_EVERY == 0) w.flush();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        private void writeId(Long id) throws IOException {
+            if (id != null) w.write(Long.toString(id));
+        }
+
+        // RFC 4180 quoting; a leading =, +, - or @ is defused so spreadsheets do not evaluate it
+        private void writeText(String v) throws IOException {
+            if (v == null || v.isEmpty()) return;
+            if ("=+-@".indexOf(v.charAt(0)) >= 0) v = "'" + v;
+            if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) {
+                w.write(v);
+                return;
+            }
+            w.write('"');
+            w.write(v.replace("\"", "\"\""));
+            w.write('"');
+        }
+    }
+
+    private static void writeDecimal(JsonGenerator gen, String name, BigDecimal v) {
+        if (v != null) gen.writeNumberProperty(name, v);
+        else gen.writeNullProperty(name);
+    }
+
+    private static void writeTimestamp(JsonGenerator gen, String name, LocalDateTime v) {
+        if (v != null) gen.writeStringProperty(name, DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(v));
+        else gen.writeNullProperty(name);
+    }
+}
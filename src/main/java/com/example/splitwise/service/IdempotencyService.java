@@ -0,0 +1,114 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.IdempotencyKey;
+import com.example.splitwise.repo.IdempotencyKeyRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Storage behind the Idempotency-Key header (see IdempotencyFilter).
+ *
+ * Completed responses are kept in idempotency_keys and mirrored in a bounded LRU, so
+ * a replay that hits the LRU touches neither the controller nor the database. A first
+ * request claims its key with a single INSERT ... ON CONFLICT, which is also what makes
+ * two concurrent requests with the same key race safely.
+ */
+@Service
+public class IdempotencyService {
+
+    public record StoredResponse(String fingerprint, int status, String contentType, byte[] body,
+                                 LocalDateTime createdAt) {
+    }
+
+    public enum State {
+        /** the caller owns the key and must run the request, then complete or release it */
+        ACQUIRED,
+        /** the key was used before with the same request: send the stored response */
+        REPLAY,
+        /** the same key is still being processed by another request */
+        IN_FLIGHT,
+        /** the key was used before with a different request */
+        MISMATCH
+    }
+
+    public record Claim(State state, StoredResponse response) {
+    }
+
+    private final IdempotencyKeyRepo repo;
+    private final CommitWatch commitWatch;
+    private final StripedCache<String, StoredResponse> cache;
+    private final Duration ttl;
+
+    public IdempotencyService(IdempotencyKeyRepo repo, CommitWatch commitWatch,
+                              @Value("${app.idempotency.ttl-hours:24}") long ttlHours,
+                              @Value("${app.idempotency.cache.max-entries-per-stripe:256}") int maxEntriesPerStripe) {
+        this.repo = repo;
+        this.commitWatch = commitWatch;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.cache = new StripedCache<>(16, maxEntriesPerStripe);
+    }
+
+    public Claim begin(String scopeKey, String fingerprint) {
+        LocalDateTime now = LocalDateTime.now();
+        StoredResponse cached = cache.peek(scopeKey);
+        if (cached != null && !isExpired(cached.createdAt(), now)) return replayOrMismatch(cached, fingerprint);
+
+        if (repo.claim(scopeKey, fingerprint, now, now.minus(ttl)) == 1) {
+            cache.invalidate(scopeKey);
+            return new Claim(State.ACQUIRED, null);
+        }
+
+        IdempotencyKey row = repo.findById(scopeKey).orElse(null);
+        if (row == null) {
+            // purged between the claim and the read; the client can simply retry
+            return new Claim(State.IN_FLIGHT, null);
+        }
+        if (!row.getFingerprint().equals(fingerprint)) return new Claim(State.MISMATCH, null);
+        if (row.getStatus() == null) return new Claim(State.IN_FLIGHT, null);
+
+        StoredResponse stored = new StoredResponse(row.getFingerprint(), row.getStatus(),
+                row.getContentType(), row.getBody(), row.getCreatedAt());
+        cache.put(scopeKey, stored);
+        return new Claim(State.REPLAY, stored);
+    }
+
+    public void complete(String scopeKey, String fingerprint, int status, String contentType, byte[] body) {
+        repo.complete(scopeKey, status, contentType, body);
+        cache.put(scopeKey, new StoredResponse(fingerprint, status, contentType, body, LocalDateTime.now()));
+    }
+
+    /** note read-write commits on this thread (and work handed on from it) from now on */
+    public CommitWatch.Watch watchCommits() {
+        return commitWatch.start();
+    }
+
+    /** true if a read-write transaction committed since {@link #watchCommits()} */
+    public boolean unwatchCommits() {
+        return commitWatch.stop();
+    }
+
+    /** give the key back, after a server error that committed nothing, so the client may retry with it */
+    public void release(String scopeKey) {
+        repo.release(scopeKey);
+        cache.invalidate(scopeKey);
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.purge-interval-ms:3600000}")
+    public void purgeExpired() {
+        repo.deleteCreatedBefore(LocalDateTime.now().minus(ttl));
+    }
+
+    private boolean isExpired(LocalDateTime createdAt, LocalDateTime now) {
+        return createdAt.isBefore(now.minus(ttl));
+    }
+
+    private static Claim replayOrMismatch(StoredResponse stored, String fingerprint) {
+        return stored.fingerprint().equals(fingerprint)
+                ? new Claim(State.REPLAY, stored)
+                : new Claim(State.MISMATCH, null);
+    }
+}
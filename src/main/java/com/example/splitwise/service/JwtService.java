@@ -1,5 +1,6 @@
 package com.example.splitwise.service;
 
+import com.example.splitwise.model.User;
 import com.nimbusds.jose.*;
 import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.crypto.MACVerifier;
@@ -8,8 +9,13 @@ import com.nimbusds.jwt.SignedJWT;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * JwtService - implementation using Nimbus JOSE+JWT 10.6
@@ -17,22 +23,53 @@ import java.util.Map;
 @Service
 public class JwtService {
 
+    // claims that make a token self-contained: the filter builds the principal from them
+    static final String CLAIM_USER_ID = "uid";
+    static final String CLAIM_USERNAME = "name";
+    static final String CLAIM_ROLES = "roles";
+    static final String CLAIM_TOKEN_VERSION = "ver";
+    // set on tokens that are only good for one thing; plain access tokens have none
+    static final String CLAIM_PURPOSE = "purpose";
+
+    /** purpose of the short-lived tickets GET /api/stream takes as ?access_token= */
+    public static final String PURPOSE_STREAM = "stream";
+
     private final byte[] secret;
     private final long expirationMs;
+    // MACVerifier is immutable and thread-safe; building one per request re-derives the key
+    private final JWSVerifier verifier;
 
     public JwtService(
             @Value("${jwt.secret}") String secret,
             @Value("${jwt.expirationMs:36000000}") long expirationMs) {
         this.secret = secret.getBytes();
         this.expirationMs = expirationMs;
+        try {
+            this.verifier = new MACVerifier(this.secret);
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Invalid jwt.secret", e);
+        }
+    }
+
+    /**
+     * Claims of a token whose signature has been checked. userId, username, roles and
+     * tokenVersion are null for tokens issued before they were added; purpose is null
+     * for plain access tokens.
+     */
+    public record VerifiedToken(String subject, Instant expiresAt, Long userId, String username,
+                                List<String> roles, Integer tokenVersion, String purpose) {
     }
 
     public String generateToken(String subject, Map<String, Object> extraClaims) {
+        return sign(subject, extraClaims, expirationMs);
+    }
+
+    private String sign(String subject, Map<String, Object> extraClaims, long ttlMs) {
         try {
             JWTClaimsSet.Builder builder = new JWTClaimsSet.Builder()
                     .subject(subject)
                     .issueTime(new Date())
-                    .expirationTime(new Date(System.currentTimeMillis() + expirationMs));
+                    .expirationTime(new Date(System.currentTimeMillis() + ttlMs));
             
             // Add extra claims
             for (Map.Entry<String, Object> entry : extraClaims.entrySet()) {
@@ -53,42 +90,69 @@ public class JwtService {
         return generateToken(subject, Map.of());
     }
 
-    public String extractUsername(String token) {
-        try {
-            SignedJWT signedJWT = SignedJWT.parse(token);
-            return signedJWT.getJWTClaimsSet().getSubject();
-        } catch (Exception e) {
-            throw new RuntimeException("Error extracting username from token", e);
-        }
+    /**
+     * Token for a user, carrying everything the request filter needs to build the principal.
+     */
+    public String generateToken(User user) {
+        return generateToken(user.getEmail(), userClaims(user));
     }
 
-    public boolean isTokenValid(String token, String username) {
+    /**
+     * Short-lived ticket for opening the update stream: the claims of an access token plus
+     * purpose=stream. Only GET /api/stream accepts it, and nothing else accepts a ticket.
+     */
+    public String generateStreamTicket(User user, Duration ttl) {
+        Map<String, Object> claims = userClaims(user);
+        claims.put(CLAIM_PURPOSE, PURPOSE_STREAM);
+        return sign(user.getEmail(), claims, ttl.toMillis());
+    }
+
+    private static Map<String, Object> userClaims(User user) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLAIM_USER_ID, user.getId());
+        if (user.getUsername() != null) claims.put(CLAIM_USERNAME, user.getUsername());
+        claims.put(CLAIM_ROLES, MyUserDetailsService.AUTHORITIES);
+        claims.put(CLAIM_TOKEN_VERSION, user.getTokenVersion());
+        return claims;
+    }
+
+    /**
+     * Parse and verify a token in one pass: signature, subject present, not expired.
+     */
+    public Optional<VerifiedToken> verify(String token) {
         try {
             SignedJWT signedJWT = SignedJWT.parse(token);
-            
-            // Verify signature
-            JWSVerifier verifier = new MACVerifier(secret);
             if (!signedJWT.verify(verifier)) {
-                return false;
+                return Optional.empty();
             }
-            
+
             JWTClaimsSet claims = signedJWT.getJWTClaimsSet();
-            
-            // Check subject matches
             String subject = claims.getSubject();
-            if (subject == null || !subject.equals(username)) {
-                return false;
-            }
-            
-            // Check expiration
             Date expiration = claims.getExpirationTime();
-            if (expiration == null || expiration.before(new Date())) {
-                return false;
+            if (subject == null || expiration == null || expiration.before(new Date())) {
+                return Optional.empty();
             }
-            
-            return true;
+            return Optional.of(new VerifiedToken(subject, expiration.toInstant(),
+                    claims.getLongClaim(CLAIM_USER_ID),
+                    claims.getStringClaim(CLAIM_USERNAME),
+                    claims.getStringListClaim(CLAIM_ROLES),
+                    claims.getIntegerClaim(CLAIM_TOKEN_VERSION),
+                    claims.getStringClaim(CLAIM_PURPOSE)));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    public String extractUsername(String token) {
+        try {
+            SignedJWT signedJWT = SignedJWT.parse(token);
+            return signedJWT.getJWTClaimsSet().getSubject();
         } catch (Exception e) {
-            return false;
+            throw new RuntimeException("Error extracting username from token", e);
         }
     }
+
+    public boolean isTokenValid(String token, String username) {
+        return verify(token).map(v -> v.subject().equals(username)).orElse(false);
+    }
 }
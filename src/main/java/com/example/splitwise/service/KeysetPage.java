@@ -0,0 +1,57 @@
+package com.example.splitwise.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. {@code next} is the last key of this page,
+ * or null on the last page; clients see it only as the opaque {@link #nextCursor()}.
+ *
+ * Listings are ordered by primary key and read with "id > :after order by id limit n",
+ * so every page is an index range scan of the same cost, wherever it starts.
+ */
+public record KeysetPage<T>(List<T> items, Long next) {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 100;
+
+    private static final String CURSOR_PREFIX = "k1:";
+
+    /**
+     * Build a page from rows fetched with limit + 1: the extra row only signals
+     * that another page exists and is not returned.
+     */
+    public static <T> KeysetPage<T> of(List<T> rows, int limit, Function<T, Long> key) {
+        if (rows.size() <= limit) return new KeysetPage<>(rows, null);
+        List<T> items = rows.subList(0, limit);
+        return new KeysetPage<>(items, key.apply(items.get(limit - 1)));
+    }
+
+    public String nextCursor() {
+        if (next == null) return null;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + next).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The key to continue after; 0 (before every id) for a missing cursor.
+     */
+    public static long after(String cursor) {
+        if (cursor == null || cursor.isBlank()) return 0L;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(CURSOR_PREFIX)) throw new IllegalArgumentException("Invalid cursor");
+            return Long.parseLong(raw.substring(CURSOR_PREFIX.length()));
+        } catch (IllegalArgumentException ex) { // also NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    public static void checkLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.MailOutbox;
+import com.example.splitwise.repo.MailOutboxRepo;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.UnsupportedEncodingException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drains mail_outbox in the background.
+ *
+ * Each run leases a batch of due rows (update ... for update skip locked, so instances
+ * never send the same row), sends the whole batch over one SMTP connection and records
+ * the outcome per message: sent, or retried later with exponential backoff, or FAILED
+ * after max-attempts. A dispatcher that dies mid-batch leaves its rows leased; they are
+ * picked up again when the lease runs out (delivery is at-least-once).
+ */
+@Service
+public class MailOutboxDispatcher {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final MailOutboxRepo repo;
+    private final JavaMailSender mailSender;
+    // SMTP I/O happens inside Angus Mail's synchronized transport methods, which would pin the
+    // carrier of a virtual thread; sends run on a few platform threads and the caller just parks
+    private final ExecutorService smtpExecutor;
+    private final String fromEmail;
+    private final String fromName;
+    private final int batchSize;
+    private final Duration lease;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final int maxAttempts;
+    private final Duration retention;
+
+    public MailOutboxDispatcher(MailOutboxRepo repo, JavaMailSender mailSender,
+                                @Value("${app.mail.from}") String fromEmail,
+                                @Value("${app.mail.from-name}") String fromName,
+                                @Value("${app.mail.threads:2}") int threads,
+                                @Value("${app.mail.outbox.batch-size:50}") int batchSize,
+                                @Value("${app.mail.outbox.lease-seconds:120}") long leaseSeconds,
+                                @Value("${app.mail.outbox.backoff-seconds:30}") long backoffSeconds,
+                                @Value("${app.mail.outbox.max-backoff-seconds:3600}") long maxBackoffSeconds,
+                                @Value("${app.mail.outbox.max-attempts:8}") int maxAttempts,
+                                @Value("${app.mail.outbox.retention-days:7}") long retentionDays) {
+        this.repo = repo;
+        this.mailSender = mailSender;
+        this.smtpExecutor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().daemon().name("smtp-", 1).factory());
+        this.fromEmail = fromEmail;
+        this.fromName = fromName;
+        this.batchSize = batchSize;
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.backoff = Duration.ofSeconds(backoffSeconds);
+        this.maxBackoff = Duration.ofSeconds(maxBackoffSeconds);
+        this.maxAttempts = maxAttempts;
+        this.retention = Duration.ofDays(retentionDays);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        smtpExecutor.shutdown();
+    }
+
+    /**
+     * Send one batch of due mail; returns how many were sent.
+     */
+    @Scheduled(initialDelayString = "${app.mail.outbox.poll-ms:2000}", fixedDelayString = "${app.mail.outbox.poll-ms:2000}")
+    public int dispatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<MailOutbox> due = repo.leaseDue(now, now.plus(lease), batchSize);
+        if (due.isEmpty()) return 0;
+
+        Map<MimeMessage, MailOutbox> batch = new LinkedHashMap<>();
+        for (MailOutbox row : due) {
+            try {
+                batch.put(toMessage(row), row);
+            } catch (MessagingException | UnsupportedEncodingException e) {
+                attemptFailed(row, e);
+            }
+        }
+        if (batch.isEmpty()) return 0;
+
+        Map<Object, Exception> failed = send(batch.keySet().toArray(MimeMessage[]::new));
+        List<Long> sent = new ArrayList<>();
+        batch.forEach((message, row) -> {
+            Exception e = failed.get(message);
+            if (e != null) attemptFailed(row, e);
+            else sent.add(row.getId());
+        });
+        if (!sent.isEmpty()) repo.markSent(sent, LocalDateTime.now());
+        return sent.size();
+    }
+
+    @Scheduled(fixedDelayString = "${app.mail.outbox.purge-interval-ms:3600000}")
+    public void purgeSent() {
+        repo.deleteSentBefore(LocalDateTime.now().minus(retention));
+    }
+
+    private MimeMessage toMessage(MailOutbox row) throws MessagingException, UnsupportedEncodingException {
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, "UTF-8");
+        helper.setTo(row.getToAddress());
+        helper.setSubject(row.getSubject());
+        helper.setText(row.getHtml(), true); // HTML body
+        helper.setFrom(new InternetAddress(fromEmail, fromName));
+        return mimeMessage;
+    }
+
+    // JavaMailSenderImpl sends an array over one connection and reports failures per message
+    private Map<Object, Exception> send(MimeMessage[] messages) {
+        try {
+            CompletableFuture.runAsync(() -> mailSender.send(messages), smtpExecutor).join();
+            return Map.of();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof MailSendException mse && !mse.getFailedMessages().isEmpty()) {
+                return mse.getFailedMessages();
+            }
+            // nothing got through (no connection, authentication failed, ...)
+            Exception ex = cause instanceof Exception x ? x : new IllegalStateException(cause);
+            Map<Object, Exception> all = new HashMap<>();
+            for (MimeMessage m : messages) all.put(m, ex);
+            return all;
+        }
+    }
+
+    private void attemptFailed(MailOutbox row, Exception e) {
+        int attempts = row.getAttempts() + 1;
+        MailOutbox.Status status = attempts >= maxAttempts ? MailOutbox.Status.FAILED : MailOutbox.Status.PENDING;
+        repo.markAttemptFailed(row.getId(), status.name(), LocalDateTime.now().plus(backoff(attempts)), describe(e));
+    }
+
+    // backoff, 2 x backoff, 4 x backoff, ... capped at maxBackoff
+    Duration backoff(int attempts) {
+        Duration d = backoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return d.compareTo(maxBackoff) > 0 ? maxBackoff : d;
+    }
+
+    private static String describe(Exception e) {
+        String msg = e.getClass().getSimpleName() + ": " + e.getMessage();
+        return msg.length() > MAX_ERROR_LENGTH ? msg.substring(0, MAX_ERROR_LENGTH) : msg;
+    }
+}
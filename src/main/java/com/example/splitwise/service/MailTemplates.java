@@ -0,0 +1,198 @@
+package com.example.splitwise.service;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTML mail templates, compiled once.
+ *
+ * A template is classpath:mail/NAME.html, spliced into mail/layout.html at {{@content}}.
+ * {{param}} marks a slot. Compiling splits the file into pre-encoded UTF-8 byte segments
+ * and slot indexes, so rendering is a loop of array copies plus HTML-escaped values,
+ * written into a caller-owned {@link Buffer} that can be reused across a batch.
+ */
+@Service
+public class MailTemplates {
+
+    private static final Pattern SLOT = Pattern.compile("\\{\\{\\s*([@A-Za-z][A-Za-z0-9_-]*)\\s*}}");
+    private static final String CONTENT = "@content";
+
+    private final String layout;
+
+    public MailTemplates() {
+        this.layout = load("layout");
+        if (!layout.contains("{{" + CONTENT + "}}")) throw new IllegalStateException("mail/layout.html has no {{@content}}");
+    }
+
+    /**
+     * Compile template NAME with its parameters in the order render() will receive them.
+     * Fails fast (at startup, where callers compile) when the template and the list disagree.
+     */
+    public Template compile(String name, String... params) {
+        String source = layout.replace("{{" + CONTENT + "}}", load(name));
+
+        List<byte[]> text = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        Set<String> used = new LinkedHashSet<>();
+        List<String> order = Arrays.asList(params);
+
+        Matcher m = SLOT.matcher(source);
+        int from = 0;
+        while (m.find()) {
+            String param = m.group(1);
+            int index = order.indexOf(param);
+            if (index < 0) throw new IllegalStateException("mail/" + name + ".html uses unknown parameter {{" + param + "}}");
+            text.add(source.substring(from, m.start()).getBytes(StandardCharsets.UTF_8));
+            slots.add(index);
+            used.add(param);
+            from = m.end();
+        }
+        text.add(source.substring(from).getBytes(StandardCharsets.UTF_8));
+
+        if (used.size() != params.length) {
+            List<String> unused = new ArrayList<>(order);
+            unused.removeAll(used);
+            throw new IllegalStateException("mail/" + name + ".html never uses " + unused);
+        }
+        return new Template(name, text.toArray(byte[][]::new), slots.stream().mapToInt(Integer::intValue).toArray(), params.length);
+    }
+
+    private static String load(String name) {
+        try (InputStream in = new ClassPathResource("mail/" + name + ".html").getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Missing mail template mail/" + name + ".html", e);
+        }
+    }
+
+    public static final class Template {
+
+        private final String name;
+        // text[i] comes before slot i; the last segment closes the document
+        private final byte[][] text;
+        private final int[] slots;
+        private final int paramCount;
+
+        private Template(String name, byte[][] text, int[] slots, int paramCount) {
+            this.name = name;
+            this.text = text;
+            this.slots = slots;
+            this.paramCount = paramCount;
+        }
+
+        /**
+         * Append the rendered document to out; values follow the order given to compile(), null renders empty.
+         */
+        public void render(Buffer out, String... values) {
+            if (values.length != paramCount) {
+                throw new IllegalArgumentException("Template " + name + " takes " + paramCount + " values, got " + values.length);
+            }
+            for (int i = 0; i < slots.length; i++) {
+                out.write(text[i]);
+                out.writeEscaped(values[slots[i]]);
+            }
+            out.write(text[slots.length]);
+        }
+
+        public String render(String... values) {
+            Buffer out = new Buffer(4096);
+            render(out, values);
+            return out.toString();
+        }
+    }
+
+    /**
+     * Growable UTF-8 byte buffer; reset() and reuse it for the next document.
+     */
+    public static final class Buffer {
+
+        private byte[] bytes;
+        private int length;
+
+        public Buffer(int initialCapacity) {
+            this.bytes = new byte[initialCapacity];
+        }
+
+        public void reset() {
+            length = 0;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        // HTML-escapes (text and attribute safe) and UTF-8 encodes in one pass, no intermediate String
+        void writeEscaped(String s) {
+            if (s == null) return;
+            ensure(s.length() * 3);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '&' -> ascii("&amp;");
+                    case '<' -> ascii("&lt;");
+                    case '>' -> ascii("&gt;");
+                    case '"' -> ascii("&quot;");
+                    case '\'' -> ascii("&#39;");
+                    default -> {
+                        if (c < 0x80) {
+                            put(c);
+                        } else if (c < 0x800) {
+                            put(0xC0 | (c >> 6));
+                            put(0x80 | (c & 0x3F));
+                        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                                && Character.isLowSurrogate(s.charAt(i + 1))) {
+                            int cp = Character.toCodePoint(c, s.charAt(++i));
+                            put(0xF0 | (cp >> 18));
+                            put(0x80 | ((cp >> 12) & 0x3F));
+                            put(0x80 | ((cp >> 6) & 0x3F));
+                            put(0x80 | (cp & 0x3F));
+                        } else if (Character.isSurrogate(c)) {
+                            put('?'); // unpaired surrogate, as String.getBytes would
+                        } else {
+                            put(0xE0 | (c >> 12));
+                            put(0x80 | ((c >> 6) & 0x3F));
+                            put(0x80 | (c & 0x3F));
+                        }
+                    }
+                }
+            }
+        }
+
+        private void ascii(String entity) {
+            for (int i = 0; i < entity.length(); i++) put(entity.charAt(i));
+        }
+
+        private void put(int b) {
+            if (length == bytes.length) ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
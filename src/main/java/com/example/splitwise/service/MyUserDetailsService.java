@@ -5,9 +5,14 @@ import com.example.splitwise.repo.UserRepo;
 import org.springframework.security.core.userdetails.*;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class MyUserDetailsService implements UserDetailsService {
 
+    // every account gets the same authorities; also issued as the "roles" claim of a JWT
+    public static final List<String> AUTHORITIES = List.of("USER");
+
     private final UserRepo repo;
 
     public MyUserDetailsService(UserRepo repo) {
@@ -23,7 +28,7 @@ public class MyUserDetailsService implements UserDetailsService {
         return org.springframework.security.core.userdetails.User
                 .withUsername(u.getEmail())    // we use email as principal
                 .password(u.getPassword())
-                .authorities("USER")
+                .authorities(AUTHORITIES.toArray(String[]::new))
                 .accountExpired(false)
                 .accountLocked(false)
                 .credentialsExpired(false)
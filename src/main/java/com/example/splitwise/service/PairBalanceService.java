@@ -0,0 +1,126 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.PairBalance;
+import com.example.splitwise.repo.DebitorRepo;
+import com.example.splitwise.repo.PairBalanceRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pairwise net balances ("what does A owe B"), stored in pair_balances and fed by
+ * BalanceService.apply, i.e. by every write that touches a Debitor or a Transaction.
+ *
+ * Reads go through a lock-striped in-process cache keyed by user id. Entries are
+ * invalidated after commit, never before, so a reader cannot cache uncommitted data.
+ */
+@Service
+public class PairBalanceService {
+
+    private final PairBalanceRepo pairRepo;
+    private final DebitorRepo debitorRepo;
+    private final StripedCache<Long, Map<Long, BigDecimal>> cache;
+
+    public PairBalanceService(PairBalanceRepo pairRepo, DebitorRepo debitorRepo,
+                              @Value("${app.balances.cache.stripes:16}") int stripes,
+                              @Value("${app.balances.cache.max-entries-per-stripe:512}") int maxEntriesPerStripe) {
+        this.pairRepo = pairRepo;
+        this.debitorRepo = debitorRepo;
+        this.cache = new StripedCache<>(stripes, maxEntriesPerStripe);
+    }
+
+    /**
+     * Net amount per counterparty; positive means userId owes the counterparty.
+     */
+    public Map<Long, BigDecimal> getBalances(Long userId) {
+        return cache.get(userId, this::load);
+    }
+
+    private Map<Long, BigDecimal> load(Long userId) {
+        Map<Long, BigDecimal> m = new LinkedHashMap<>();
+        for (PairBalance p : pairRepo.findNonZeroByDebtorId(userId)) {
+            m.put(p.getCreditorId(), p.getAmount());
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Apply net changes, keyed by (debtor, creditor). Both orientations are written.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(Map<BalanceService.Pair, BigDecimal> deltas) {
+        Set<Long> touched = new LinkedHashSet<>();
+        for (Map.Entry<BalanceService.Pair, BigDecimal> entry : deltas.entrySet()) {
+            BigDecimal d = entry.getValue();
+            if (d.signum() == 0) continue;
+            Long a = entry.getKey().debtorId();
+            Long b = entry.getKey().creditorId();
+            int updated = pairRepo.addToAmount(a, b, d);
+            if (updated == 0 && !seed(a, b)) {
+                // a concurrent first write inserted the pair after the update above;
+                // its sums could not see this (uncommitted) change, so add it
+                updated = pairRepo.addToAmount(a, b, d);
+            }
+            if (updated != 0) {
+                pairRepo.addToAmount(b, a, d.negate());
+            }
+            touched.add(a);
+            touched.add(b);
+        }
+        invalidateAfterCommit(touched);
+    }
+
+    /**
+     * Insert both orientations of a pair, computed from the splits (which already include any
+     * pending change), unless the pair exists by then. Never overwrites: these sums miss other
+     * transactions' uncommitted changes, which those transactions add to an existing pair
+     * themselves. Pairs are keyed lower id first, so concurrent seeds lock in the same order.
+     * Returns whether the pair was inserted.
+     */
+    private boolean seed(Long a, Long b) {
+        BigDecimal net = debitorRepo.sumNetOwedBetween(a, b);
+        if (pairRepo.insertIfAbsent(a, b, net) == 0) return false;
+        pairRepo.insertIfAbsent(b, a, net.negate());
+        return true;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void deleteAllFor(Long userId) {
+        Set<Long> touched = new LinkedHashSet<>(pairRepo.findCounterpartyIds(userId));
+        touched.add(userId);
+        pairRepo.deleteAllFor(userId);
+        invalidateAfterCommit(touched);
+    }
+
+    private void invalidateAfterCommit(Set<Long> userIds) {
+        if (userIds.isEmpty()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                userIds.forEach(cache::invalidate);
+            }
+        });
+    }
+
+    /**
+     * Materialize pairs from existing splits the first time the table is seen empty.
+     * Writes after that keep it in sync; a pair missed here is rebuilt on its next write.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillIfEmpty() {
+        if (pairRepo.count() == 0) pairRepo.backfill();
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.splitwise.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * BCrypt off the request threads.
+ *
+ * Hashing and verification run on a fixed pool with a bounded queue, so a login burst
+ * can only occupy that pool and never all of Tomcat's threads. When the queue is full
+ * the returned future fails at once with {@link RejectedExecutionException}; callers
+ * answer 503 with Retry-After instead of waiting.
+ *
+ * Results are handed over to the MVC async executor before the returned future completes,
+ * so whatever a caller chains onto it (saving the user, signing a token) runs there and
+ * never holds a bcrypt worker: a slow database cannot turn into a full hashing queue.
+ *
+ * Metrics: auth.hashing.queue (gauge), auth.hashing.wait and auth.hashing.duration
+ * (timers: time queued, time hashing), auth.hashing.rejected (counter).
+ */
+@Service
+public class PasswordHashingService {
+
+    private final PasswordEncoder encoder;
+    private final ThreadPoolExecutor executor;
+    // where callers' continuations run: Spring MVC's async executor
+    private final Executor continuations;
+    private final CommitWatch commitWatch;
+    private final Timer waitTimer;
+    private final Timer hashTimer;
+    private final Counter rejected;
+    // matched against when the account does not exist, so unknown emails cost the same time
+    private final String dummyHash;
+
+    public PasswordHashingService(PasswordEncoder encoder, MeterRegistry meterRegistry,
+                                  @Qualifier("applicationTaskExecutor") Executor continuations,
+                                  CommitWatch commitWatch,
+                                  @Value("${app.auth.hashing.threads:0}") int threads,
+                                  @Value("${app.auth.hashing.queue-capacity:64}") int queueCapacity) {
+        this.encoder = encoder;
+        this.continuations = continuations;
+        this.commitWatch = commitWatch;
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger n = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("auth.hashing.queue", executor, e -> e.getQueue().size())
+                .description("Password hashing tasks waiting for a worker")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("auth.hashing.wait")
+                .description("Time a password hashing task spent queued")
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("auth.hashing.duration")
+                .description("Time spent hashing or verifying a password")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("auth.hashing.rejected")
+                .description("Password hashing tasks refused because the queue was full")
+                .register(meterRegistry);
+        this.dummyHash = encoder.encode("dummy-password");
+    }
+
+    public CompletableFuture<String> encode(String rawPassword) {
+        return submit(() -> encoder.encode(rawPassword));
+    }
+
+    /**
+     * encodedPassword may be null (unknown account): a dummy hash is checked instead and the result is false.
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isBlank()) {
+            return submit(() -> {
+                encoder.matches(rawPassword, dummyHash);
+                return false;
+            });
+        }
+        return submit(() -> encoder.matches(rawPassword, encodedPassword));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // the continuation keeps the caller's commit watch: IdempotencyFilter must see its writes
+        CompletableFuture<T> handedOver = result.thenApplyAsync(Function.identity(),
+                commitWatch.propagating(continuations));
+        long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    result.complete(hashTimer.record(work));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            result.completeExceptionally(e);
+        }
+        return handedOver;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
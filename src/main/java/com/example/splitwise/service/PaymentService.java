@@ -6,11 +6,23 @@ import com.example.splitwise.model.User;
 import com.example.splitwise.repo.DebitorRepo;
 import com.example.splitwise.repo.TransactionRepo;
 import com.example.splitwise.repo.UserRepo;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class PaymentService {
@@ -18,11 +30,34 @@ public class PaymentService {
     private final DebitorRepo debitorRepo;
     private final TransactionRepo transactionRepo;
     private final UserRepo userRepo;
+    private final BalanceService balanceService;
+    private final NamedParameterJdbcTemplate jdbc;
+    private final EmailService emailService;
+    private final UpdateStreamService updateStream;
 
-    public PaymentService(DebitorRepo debitorRepo, TransactionRepo transactionRepo, UserRepo userRepo){
+    public PaymentService(DebitorRepo debitorRepo, TransactionRepo transactionRepo, UserRepo userRepo,
+                          BalanceService balanceService, NamedParameterJdbcTemplate jdbc, EmailService emailService,
+                          UpdateStreamService updateStream){
         this.debitorRepo = debitorRepo;
         this.transactionRepo = transactionRepo;
         this.userRepo = userRepo;
+        this.balanceService = balanceService;
+        this.jdbc = jdbc;
+        this.emailService = emailService;
+        this.updateStream = updateStream;
+    }
+
+    public record PaymentRequest(Long debitorId, Long payerUserId, BigDecimal amount) {
+    }
+
+    /**
+     * Outcome of one item of a batch. transactionId is set when applied, error when rejected.
+     */
+    public record PaymentResult(int index, Long debitorId, boolean applied, Long transactionId, String error) {
+
+        static PaymentResult rejected(int index, Long debitorId, String error) {
+            return new PaymentResult(index, debitorId, false, null, error);
+        }
     }
 
     /**
@@ -51,6 +86,7 @@ public class PaymentService {
         tx.setTs(LocalDateTime.now());
         transactionRepo.save(tx);
 
+        BalanceService.SplitState before = BalanceService.SplitState.of(split);
         split.setAmountPaid(split.getAmountPaid().add(amount));
         if (split.getAmountPaid().compareTo(split.getDebAmount()) >= 0){
             split.setSettled(true);
@@ -58,10 +94,233 @@ public class PaymentService {
         }
         debitorRepo.save(split);
 
-        // optional: update materialized user totals if used (do inside same tx)
-        // payer.setTotal(payer.getTotal().subtract(amount)); userRepo.save(payer);
-        // receiver.setTotal(receiver.getTotal().add(amount)); userRepo.save(receiver);
+        // materialized youOwe / owedToYou (same tx)
+        BalanceService.SplitState after = BalanceService.SplitState.of(split);
+        balanceService.apply(balanceService.delta().split(before, after));
+        updateStream.splitChanged(split.getId(), after);
 
+        emailService.notifyPaymentReceived(receiver.getEmail(), EmailService.nameOf(receiver), EmailService.nameOf(payer),
+                amount, split.getEvent().getTitle(), split.getRemaining());
         return tx;
     }
+
+    /**
+     * Outcome of an atomic payment, read back from the UPDATE ... RETURNING row.
+     */
+    public record AtomicPayment(Long transactionId, Long debitorId, Long fromUserId, Long toUserId, Long eventId,
+                                BigDecimal amount, BigDecimal remaining, boolean settled, LocalDateTime ts) {
+    }
+
+    // increment only while the remaining share covers the amount; settled flips in the same statement
+    private static final String APPLY_PAYMENT_SQL = """
+            update debitors d
+            set amount_paid = d.amount_paid + :amount,
+                settled = (d.amount_paid + :amount >= d.deb_amount),
+                paid_at = case when d.amount_paid + :amount >= d.deb_amount then :now else d.paid_at end,
+                version = coalesce(d.version, 0) + 1
+            from events e
+            where d.id = :id and e.id = d.event_id and e.creator_id is not null
+              and d.settled = false and d.deb_amount - d.amount_paid >= :amount
+            returning d.user_id, e.creator_id, e.id as event_id, e.title, e.cancelled, d.deb_amount, d.amount_paid, d.settled
+            """;
+
+    private static final String PAYMENT_REJECTION_SQL = """
+            select e.creator_id, d.settled
+            from debitors d left join events e on e.id = d.event_id
+            where d.id = :id
+            """;
+
+    /**
+     * Contention-free variant of {@link #payDebitor}: the split is never read into memory.
+     * A single conditional UPDATE adds the amount, flips settled and returns the new state,
+     * so concurrent payments on the same split serialize on the row lock instead of failing
+     * optimistic version checks. Only a rejected payment costs an extra read, to explain why.
+     */
+    @Transactional
+    public AtomicPayment payDebitorAtomic(Long debitorId, Long payerUserId, BigDecimal amount){
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) throw new IllegalArgumentException("Invalid amount");
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Map<String, Object>> rows = jdbc.queryForList(APPLY_PAYMENT_SQL, new MapSqlParameterSource()
+                .addValue("id", debitorId)
+                .addValue("amount", amount)
+                .addValue("now", Timestamp.valueOf(now)));
+        if (rows.isEmpty()) throw rejection(debitorId);
+
+        Map<String, Object> row = rows.get(0);
+        Long userId = ((Number) row.get("user_id")).longValue();
+        Long creatorId = ((Number) row.get("creator_id")).longValue();
+        Long eventId = ((Number) row.get("event_id")).longValue();
+        boolean cancelled = (Boolean) row.get("cancelled");
+        BigDecimal debAmount = (BigDecimal) row.get("deb_amount");
+        BigDecimal paid = (BigDecimal) row.get("amount_paid");
+        boolean settled = (Boolean) row.get("settled");
+
+        Long txId;
+        try {
+            txId = SequenceIds.next(jdbc, TX_SEQUENCE, 1)[0];
+            jdbc.update(INSERT_TX_SQL, new MapSqlParameterSource()
+                    .addValue("id", txId)
+                    .addValue("ts", Timestamp.valueOf(now))
+                    .addValue("fromUserId", payerUserId)
+                    .addValue("toUserId", creatorId)
+                    .addValue("amount", amount)
+                    .addValue("eventId", eventId)
+                    .addValue("note", null));
+        } catch (DataIntegrityViolationException ex) {
+            // from_user_id foreign key; the whole payment rolls back
+            throw new IllegalArgumentException("Payer not found");
+        }
+
+        // the update guaranteed the split was unsettled before, so its prior state is known
+        BalanceService.SplitState before = new BalanceService.SplitState(userId, creatorId, eventId, cancelled,
+                false, debAmount, paid.subtract(amount));
+        BalanceService.SplitState after = new BalanceService.SplitState(userId, creatorId, eventId, cancelled,
+                settled, debAmount, paid);
+        balanceService.apply(balanceService.delta().split(before, after));
+        updateStream.splitChanged(debitorId, after);
+
+        // the statement never loaded the users; only look them up when mail will actually go out
+        if (emailService.notificationsEnabled()) {
+            Map<Long, User> users = new HashMap<>();
+            userRepo.findAllById(List.of(payerUserId, creatorId)).forEach(u -> users.put(u.getId(), u));
+            User receiver = users.get(creatorId);
+            if (receiver != null) {
+                emailService.notifyPaymentReceived(receiver.getEmail(), EmailService.nameOf(receiver),
+                        EmailService.nameOf(users.get(payerUserId)), amount, (String) row.get("title"),
+                        debAmount.subtract(paid));
+            }
+        }
+        return new AtomicPayment(txId, debitorId, payerUserId, creatorId, eventId, amount,
+                debAmount.subtract(paid), settled, now);
+    }
+
+    private RuntimeException rejection(Long debitorId) {
+        List<Map<String, Object>> rows = jdbc.queryForList(PAYMENT_REJECTION_SQL, Map.of("id", debitorId));
+        if (rows.isEmpty()) return new IllegalArgumentException("Split not found");
+        if (rows.get(0).get("creator_id") == null) return new IllegalStateException("Receiver not found for this split");
+        if (Boolean.TRUE.equals(rows.get(0).get("settled"))) return new IllegalArgumentException("Split already settled");
+        return new IllegalArgumentException("Amount exceeds remaining share");
+    }
+
+    // ids come from the same pooled sequence Hibernate uses for Transaction
+    private static final String TX_SEQUENCE = "transactions_seq";
+
+    private static final String INSERT_TX_SQL = """
+            insert into transactions (id, ts, from_user_id, to_user_id, amount, event_id, note)
+            values (:id, :ts, :fromUserId, :toUserId, :amount, :eventId, :note)
+            """;
+
+    private static final String UPDATE_SPLIT_SQL = """
+            update debitors
+            set amount_paid = :amountPaid, settled = :settled, paid_at = :paidAt, version = version + 1
+            where id = :id and version = :version
+            """;
+
+    /**
+     * Apply many payments in one transaction.
+     *
+     * Splits (with event and payee) and payers are loaded with one IN query each. Items are
+     * validated in order against the running state, so several payments on the same split
+     * add up. Invalid items are reported and skipped; the valid ones are written as one JDBC
+     * batch of Transaction inserts and one batch of Debitor updates (version-checked).
+     */
+    @Transactional
+    public List<PaymentResult> payBatch(List<PaymentRequest> requests){
+        Set<Long> debitorIds = new HashSet<>();
+        Set<Long> payerIds = new HashSet<>();
+        for (PaymentRequest r : requests) {
+            if (r.debitorId() != null) debitorIds.add(r.debitorId());
+            if (r.payerUserId() != null) payerIds.add(r.payerUserId());
+        }
+
+        Map<Long, Debitor> splits = new HashMap<>();
+        if (!debitorIds.isEmpty()) {
+            debitorRepo.findAllWithEventByIdIn(debitorIds).forEach(d -> splits.put(d.getId(), d));
+        }
+        Set<Long> payers = payerIds.isEmpty() ? Set.of() : new HashSet<>(userRepo.findExistingIds(payerIds));
+
+        // running state per split with an accepted item, so repeated items see earlier ones
+        Map<Long, BalanceService.SplitState> current = new HashMap<>();
+        Map<Long, LocalDateTime> paidAt = new HashMap<>();
+        BalanceService.Delta delta = balanceService.delta();
+        LocalDateTime now = LocalDateTime.now();
+
+        PaymentResult[] results = new PaymentResult[requests.size()];
+        List<Integer> accepted = new ArrayList<>();
+        List<MapSqlParameterSource> inserts = new ArrayList<>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            PaymentRequest r = requests.get(i);
+            if (r.debitorId() == null || r.payerUserId() == null || r.amount() == null) {
+                results[i] = PaymentResult.rejected(i, r.debitorId(), "debitorId, payerUserId and amount are required");
+                continue;
+            }
+            Debitor split = splits.get(r.debitorId());
+            if (split == null) { results[i] = PaymentResult.rejected(i, r.debitorId(), "Split not found"); continue; }
+            if (!payers.contains(r.payerUserId())) { results[i] = PaymentResult.rejected(i, r.debitorId(), "Payer not found"); continue; }
+            if (split.getEvent() == null || split.getEvent().getCreator() == null) {
+                results[i] = PaymentResult.rejected(i, r.debitorId(), "Receiver not found for this split");
+                continue;
+            }
+
+            // a split enters current only once an item on it is accepted: it is then written back
+            // (version-checked, so it bumps @Version) and announced, which a rejected item must not cause
+            BalanceService.SplitState before = current.get(split.getId());
+            if (before == null) before = BalanceService.SplitState.of(split);
+            BigDecimal remaining = before.debAmount().subtract(before.amountPaid());
+            if (r.amount().compareTo(BigDecimal.ZERO) <= 0) { results[i] = PaymentResult.rejected(i, r.debitorId(), "Invalid amount"); continue; }
+            if (r.amount().compareTo(remaining) > 0) { results[i] = PaymentResult.rejected(i, r.debitorId(), "Amount exceeds remaining share"); continue; }
+
+            BigDecimal newPaid = before.amountPaid().add(r.amount());
+            boolean settled = before.settled() || newPaid.compareTo(before.debAmount()) >= 0;
+            if (settled && !before.settled()) paidAt.put(split.getId(), now);
+            BalanceService.SplitState after = new BalanceService.SplitState(before.userId(), before.creatorId(),
+                    before.eventId(), before.cancelled(), settled, before.debAmount(), newPaid);
+            current.put(split.getId(), after);
+            delta.split(before, after);
+
+            inserts.add(new MapSqlParameterSource()
+                    .addValue("ts", Timestamp.valueOf(now))
+                    .addValue("fromUserId", r.payerUserId())
+                    .addValue("toUserId", before.creatorId())
+                    .addValue("amount", r.amount())
+                    .addValue("eventId", before.eventId())
+                    .addValue("note", null));
+            accepted.add(i);
+        }
+
+        if (!accepted.isEmpty()) {
+            long[] txIds = SequenceIds.next(jdbc, TX_SEQUENCE, inserts.size());
+            for (int k = 0; k < accepted.size(); k++) {
+                int i = accepted.get(k);
+                inserts.get(k).addValue("id", txIds[k]);
+                results[i] = new PaymentResult(i, requests.get(i).debitorId(), true, txIds[k], null);
+            }
+            jdbc.batchUpdate(INSERT_TX_SQL, inserts.toArray(SqlParameterSource[]::new));
+
+            // one update per touched split with its final state
+            List<Long> touched = new ArrayList<>(current.keySet());
+            SqlParameterSource[] updates = touched.stream().map(id -> {
+                BalanceService.SplitState s = current.get(id);
+                LocalDateTime p = paidAt.containsKey(id) ? paidAt.get(id) : splits.get(id).getPaidAt();
+                return new MapSqlParameterSource()
+                        .addValue("id", id)
+                        .addValue("amountPaid", s.amountPaid())
+                        .addValue("settled", s.settled())
+                        .addValue("paidAt", p != null ? Timestamp.valueOf(p) : null)
+                        .addValue("version", splits.get(id).getVersion());
+            }).toArray(SqlParameterSource[]::new);
+            int[] counts = jdbc.batchUpdate(UPDATE_SPLIT_SQL, updates);
+            for (int k = 0; k < counts.length; k++) {
+                // SUCCESS_NO_INFO (-2) is returned by some drivers for batched statements
+                if (counts[k] == 0) throw new ObjectOptimisticLockingFailureException(Debitor.class, touched.get(k));
+            }
+
+            balanceService.apply(delta);
+            // only splits with an accepted item: a rejected item changed nothing to announce
+            touched.forEach(id -> updateStream.splitChanged(id, current.get(id)));
+        }
+        return List.of(results);
+    }
 }
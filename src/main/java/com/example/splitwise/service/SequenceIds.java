@@ -0,0 +1,41 @@
+package com.example.splitwise.service;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ids for rows inserted with plain JDBC into tables whose entities use a pooled
+ * sequence generator (allocationSize 50).
+ *
+ * Hibernate's pooled optimizer treats every nextval v as owning the block
+ * [v - 49, v]; taking blocks the same way keeps JDBC and Hibernate inserts from
+ * ever handing out the same id, at one round trip per 50 rows.
+ */
+final class SequenceIds {
+
+    static final int ALLOCATION_SIZE = 50;
+
+    private static final String NEXT_BLOCKS_SQL =
+            "select nextval(cast(:seq as regclass)) from generate_series(1, :blocks)";
+
+    private SequenceIds() {
+    }
+
+    static long[] next(NamedParameterJdbcTemplate jdbc, String sequence, int count) {
+        long[] ids = new long[count];
+        int n = 0;
+        while (n < count) {
+            int blocks = (count - n + ALLOCATION_SIZE - 1) / ALLOCATION_SIZE;
+            List<Long> highs = jdbc.queryForList(NEXT_BLOCKS_SQL, Map.of("seq", sequence, "blocks", blocks), Long.class);
+            for (long hi : highs) {
+                // the first block of a fresh sequence reaches below 1, hence the loop
+                for (long id = Math.max(1, hi - ALLOCATION_SIZE + 1); id <= hi && n < count; id++) {
+                    ids[n++] = id;
+                }
+            }
+        }
+        return ids;
+    }
+}
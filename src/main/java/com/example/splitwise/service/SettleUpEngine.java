@@ -0,0 +1,156 @@
+package com.example.splitwise.service;
+
+/**
+ * Minimum cash flow ("simplify debts") on primitive arrays.
+ *
+ * Members are dense indices 0..n-1 and amounts are whole cents. Debts are folded
+ * into one net position per member, then the largest debtor repeatedly pays the
+ * largest creditor, both picked from binary max-heaps. Every step zeroes at least
+ * one member, so the result has at most n - 1 transfers and runs in O(m + n log n)
+ * with no per-debt or per-member objects.
+ */
+public final class SettleUpEngine {
+
+    private SettleUpEngine() {
+    }
+
+    /**
+     * Suggested transfers: {@code from[i]} pays {@code amount[i]} cents to {@code to[i]}.
+     */
+    public static final class Transfers {
+
+        public final int[] from;
+        public final int[] to;
+        public final long[] amount;
+        public final int size;
+
+        Transfers(int[] from, int[] to, long[] amount, int size) {
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.size = size;
+        }
+    }
+
+    /**
+     * @param members number of members
+     * @param debtor  debtor index of each debt
+     * @param creditor creditor index of each debt
+     * @param cents   amount of each debt, in cents
+     * @param debts   number of debts to read from the arrays
+     */
+    public static Transfers simplify(int members, int[] debtor, int[] creditor, long[] cents, int debts) {
+        long[] net = new long[members]; // positive: receives, negative: pays
+        for (int i = 0; i < debts; i++) {
+            net[debtor[i]] -= cents[i];
+            net[creditor[i]] += cents[i];
+        }
+        return simplify(net);
+    }
+
+    /**
+     * Settle the given net positions. The array is consumed (left all zero).
+     */
+    public static Transfers simplify(long[] net) {
+        int n = net.length;
+        IndexHeap receivers = new IndexHeap(n);
+        IndexHeap payers = new IndexHeap(n);
+        for (int i = 0; i < n; i++) {
+            if (net[i] > 0) receivers.add(i, net[i]);
+            else if (net[i] < 0) payers.add(i, -net[i]);
+        }
+
+        // each transfer retires at least one member, the last one retires two
+        int cap = (receivers.size == 0 || payers.size == 0) ? 0 : receivers.size + payers.size - 1;
+        int[] from = new int[cap];
+        int[] to = new int[cap];
+        long[] amount = new long[cap];
+        int size = 0;
+
+        while (receivers.size > 0 && payers.size > 0) {
+            int r = receivers.top();
+            int p = payers.top();
+            long x = Math.min(receivers.topKey(), payers.topKey());
+
+            from[size] = p;
+            to[size] = r;
+            amount[size] = x;
+            size++;
+
+            net[r] -= x;
+            net[p] += x;
+            receivers.decreaseTop(x);
+            payers.decreaseTop(x);
+        }
+        return new Transfers(from, to, amount, size);
+    }
+
+    /**
+     * Binary max-heap of member indices ordered by a long key, all in flat arrays.
+     */
+    private static final class IndexHeap {
+
+        private final int[] idx;
+        private final long[] key;
+        private int size;
+
+        IndexHeap(int capacity) {
+            idx = new int[capacity];
+            key = new long[capacity];
+        }
+
+        void add(int member, long k) {
+            int i = size++;
+            idx[i] = member;
+            key[i] = k;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (key[parent] >= key[i]) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        int top() {
+            return idx[0];
+        }
+
+        long topKey() {
+            return key[0];
+        }
+
+        /** subtract from the largest key; drop the entry once it reaches zero */
+        void decreaseTop(long by) {
+            key[0] -= by;
+            if (key[0] == 0) {
+                size--;
+                idx[0] = idx[size];
+                key[0] = key[size];
+            }
+            siftDown();
+        }
+
+        private void siftDown() {
+            int i = 0;
+            while (true) {
+                int l = 2 * i + 1;
+                if (l >= size) return;
+                int r = l + 1;
+                int largest = (r < size && key[r] > key[l]) ? r : l;
+                if (key[i] >= key[largest]) return;
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int ti = idx[a];
+            idx[a] = idx[b];
+            idx[b] = ti;
+            long tk = key[a];
+            key[a] = key[b];
+            key[b] = tk;
+        }
+    }
+}
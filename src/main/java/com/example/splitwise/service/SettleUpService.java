@@ -0,0 +1,100 @@
+package com.example.splitwise.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Settle-up suggestions for a group of users: folds the outstanding splits among them
+ * (payee is the event creator, as in PaymentService.payDebitor) and runs SettleUpEngine.
+ *
+ * Rows are aggregated per (debtor, creditor) in SQL and read straight into primitive
+ * arrays; user ids are mapped to engine indices by binary search over a sorted long[].
+ */
+@Service
+public class SettleUpService {
+
+    private static final String OUTSTANDING_SQL = """
+            select d.user_id, e.creator_id,
+                   cast(round(sum(d.deb_amount - d.amount_paid) * 100) as bigint) as cents
+            from debitors d join events e on e.id = d.event_id
+            where d.settled = false and e.cancelled = false and d.user_id <> e.creator_id
+              and d.user_id = any(?) and e.creator_id = any(?)
+            group by d.user_id, e.creator_id
+            """;
+
+    private final JdbcTemplate jdbc;
+
+    public SettleUpService(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    public record Suggestion(Long fromUserId, Long toUserId, BigDecimal amount) {
+    }
+
+    @Transactional(readOnly = true)
+    public List<Suggestion> suggest(Collection<Long> userIds) {
+        if (userIds == null || userIds.isEmpty()) throw new IllegalArgumentException("userIds required");
+        if (userIds.stream().anyMatch(Objects::isNull)) throw new IllegalArgumentException("userIds must not contain null");
+
+        long[] ids = userIds.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        Debts debts = new Debts(Math.max(16, ids.length));
+
+        jdbc.query(con -> {
+            var ps = con.prepareStatement(OUTSTANDING_SQL);
+            Array arr = con.createArrayOf("bigint", Arrays.stream(ids).boxed().toArray());
+            ps.setArray(1, arr);
+            ps.setArray(2, arr);
+            return ps;
+        }, rs -> {
+            long cents = rs.getLong(3);
+            if (cents > 0) {
+                debts.add(Arrays.binarySearch(ids, rs.getLong(1)), Arrays.binarySearch(ids, rs.getLong(2)), cents);
+            }
+        });
+
+        SettleUpEngine.Transfers t = SettleUpEngine.simplify(ids.length, debts.debtor, debts.creditor, debts.cents, debts.size);
+
+        List<Suggestion> out = new ArrayList<>(t.size);
+        for (int i = 0; i < t.size; i++) {
+            out.add(new Suggestion(ids[t.from[i]], ids[t.to[i]], BigDecimal.valueOf(t.amount[i], 2)));
+        }
+        return out;
+    }
+
+    // growable parallel arrays for the aggregated rows
+    private static final class Debts {
+
+        int[] debtor;
+        int[] creditor;
+        long[] cents;
+        int size;
+
+        Debts(int capacity) {
+            debtor = new int[capacity];
+            creditor = new int[capacity];
+            cents = new long[capacity];
+        }
+
+        void add(int d, int c, long amount) {
+            if (size == cents.length) {
+                int cap = size * 2;
+                debtor = Arrays.copyOf(debtor, cap);
+                creditor = Arrays.copyOf(creditor, cap);
+                cents = Arrays.copyOf(cents, cap);
+            }
+            debtor[size] = d;
+            creditor[size] = c;
+            cents[size] = amount;
+            size++;
+        }
+    }
+}
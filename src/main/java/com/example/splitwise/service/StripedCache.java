@@ -0,0 +1,108 @@
+package com.example.splitwise.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small bounded in-process cache split into independently locked stripes.
+ *
+ * Each stripe is an access-ordered LinkedHashMap (LRU) guarded by its own lock, so
+ * readers and writers of different keys rarely contend. Loads happen outside the
+ * lock; a per-stripe epoch, bumped on every invalidation, keeps a load that raced
+ * with an invalidation from re-inserting stale data.
+ *
+ * ReentrantLock rather than synchronized so virtual threads are never pinned.
+ */
+public class StripedCache<K, V> {
+
+    private final Stripe<K, V>[] stripes;
+    private final int mask;
+
+    @SuppressWarnings("unchecked")
+    public StripedCache(int stripeCount, int maxEntriesPerStripe) {
+        int n = Integer.highestOneBit(Math.max(1, stripeCount - 1) << 1); // next power of two
+        this.stripes = new Stripe[n];
+        this.mask = n - 1;
+        for (int i = 0; i < n; i++) stripes[i] = new Stripe<>(maxEntriesPerStripe);
+    }
+
+    public V get(K key, Function<K, V> loader) {
+        Stripe<K, V> s = stripeFor(key);
+        long epoch;
+        s.lock.lock();
+        try {
+            V cached = s.map.get(key);
+            if (cached != null) return cached;
+            epoch = s.epoch;
+        } finally {
+            s.lock.unlock();
+        }
+
+        V loaded = loader.apply(key);
+        if (loaded == null) return null;
+
+        s.lock.lock();
+        try {
+            if (s.epoch == epoch) s.map.put(key, loaded);
+        } finally {
+            s.lock.unlock();
+        }
+        return loaded;
+    }
+
+    /** cached value or null; never loads */
+    public V peek(K key) {
+        Stripe<K, V> s = stripeFor(key);
+        s.lock.lock();
+        try {
+            return s.map.get(key);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        Stripe<K, V> s = stripeFor(key);
+        s.lock.lock();
+        try {
+            s.map.put(key, value);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        Stripe<K, V> s = stripeFor(key);
+        s.lock.lock();
+        try {
+            s.map.remove(key);
+            s.epoch++;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16); // spread, keys are often small sequential ids
+        return stripes[h & mask];
+    }
+
+    private static final class Stripe<K, V> {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<K, V> map;
+        long epoch;
+
+        Stripe(int maxEntries) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+}
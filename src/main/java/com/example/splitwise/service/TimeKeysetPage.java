@@ -0,0 +1,57 @@
+package com.example.splitwise.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a listing in newest-first (ts, id) order, the time-ordered sibling of
+ * {@link KeysetPage}. {@code next} is the (ts, id) of the last row of this page, or null on
+ * the last page; clients see it only as the opaque {@link #nextCursor()}.
+ *
+ * Pages are read with "(ts, id) < (:ts, :id) order by ts desc, id desc limit n" over an
+ * index ending in (ts, id), so the thousandth page costs what the first one does.
+ */
+public record TimeKeysetPage<T>(List<T> items, Key next) {
+
+    private static final String CURSOR_PREFIX = "t1:";
+
+    /** ts breaks ties by id: several rows may share a timestamp */
+    public record Key(LocalDateTime ts, long id) {
+    }
+
+    /**
+     * Build a page from rows fetched with limit + 1: the extra row only signals
+     * that another page exists and is not returned.
+     */
+    public static <T> TimeKeysetPage<T> of(List<T> rows, int limit, Function<T, Key> key) {
+        if (rows.size() <= limit) return new TimeKeysetPage<>(rows, null);
+        List<T> items = rows.subList(0, limit);
+        return new TimeKeysetPage<>(items, key.apply(items.get(limit - 1)));
+    }
+
+    public String nextCursor() {
+        if (next == null) return null;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + next.ts() + "," + next.id()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The key to continue after; null (start with the newest row) for a missing cursor.
+     */
+    public static Key after(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int comma = raw.lastIndexOf(',');
+            if (!raw.startsWith(CURSOR_PREFIX) || comma < 0) throw new IllegalArgumentException("Invalid cursor");
+            return new Key(LocalDateTime.parse(raw.substring(CURSOR_PREFIX.length(), comma)),
+                    Long.parseLong(raw.substring(comma + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException ex) { // also NumberFormatException
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
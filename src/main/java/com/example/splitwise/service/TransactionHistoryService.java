@@ -0,0 +1,135 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.repo.EventRepo;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Read side of the payment history (the transactions table), newest first, one
+ * {@link TimeKeysetPage} at a time.
+ *
+ * Every query is a range scan of one of the history indexes, (from_user_id | to_user_id |
+ * event_id, ts, id), that stops after limit + 1 rows; only note, kept out of the indexes,
+ * is read from the table for those rows. A user's history is the merge of two such scans,
+ * payments sent and payments received, each limited on its own.
+ */
+@Service
+public class TransactionHistoryService {
+
+    private static final String COLUMNS = "id, ts, from_user_id, to_user_id, amount, event_id, note";
+    private static final String ORDER_LIMIT = " order by ts desc, id desc limit :limit";
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final EventRepo eventRepo;
+
+    public TransactionHistoryService(NamedParameterJdbcTemplate jdbc, EventRepo eventRepo) {
+        this.jdbc = jdbc;
+        this.eventRepo = eventRepo;
+    }
+
+    public record TransactionRow(Long id, LocalDateTime ts, Long fromUserId, Long toUserId, BigDecimal amount,
+                                 Long eventId, String note) {
+    }
+
+    /**
+     * Optional filters: ts in [from, to) and the other party of the payment.
+     */
+    public record Filter(LocalDateTime from, LocalDateTime to, Long counterpartyId) {
+
+        /**
+         * Dates (2024-05-01, start of day) or date-times (2024-05-01T12:00:00); blank means unbounded.
+         */
+        public static Filter parse(String from, String to, Long counterpartyId) {
+            Filter f = new Filter(parseTime(from, "from"), parseTime(to, "to"), counterpartyId);
+            if (f.from() != null && f.to() != null && !f.from().isBefore(f.to())) {
+                throw new IllegalArgumentException("from must be before to");
+            }
+            return f;
+        }
+
+        private static LocalDateTime parseTime(String value, String name) {
+            if (value == null || value.isBlank()) return null;
+            try {
+                return value.length() == 10 ? LocalDate.parse(value).atStartOfDay() : LocalDateTime.parse(value);
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid " + name + ": expected yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss]");
+            }
+        }
+    }
+
+    private static final RowMapper<TransactionRow> ROW = (rs, i) -> new TransactionRow(
+            rs.getLong("id"),
+            rs.getTimestamp("ts").toLocalDateTime(),
+            rs.getObject("from_user_id", Long.class),
+            rs.getObject("to_user_id", Long.class),
+            rs.getBigDecimal("amount"),
+            rs.getObject("event_id", Long.class),
+            rs.getString("note"));
+
+    /**
+     * Payments the user made or received.
+     */
+    @Transactional(readOnly = true)
+    public TimeKeysetPage<TransactionRow> forUser(Long userId, Filter filter, TimeKeysetPage.Key after, int limit) {
+        MapSqlParameterSource params = params(filter, after, limit).addValue("userId", userId);
+        String sent = "select " + COLUMNS + " from transactions where from_user_id = :userId"
+                + conditions(filter, after, "to_user_id = :counterpartyId") + ORDER_LIMIT;
+        // a payment to oneself is already in "sent"
+        String received = "select " + COLUMNS + " from transactions"
+                + " where to_user_id = :userId and from_user_id is distinct from :userId"
+                + conditions(filter, after, "from_user_id = :counterpartyId") + ORDER_LIMIT;
+        String sql = "select * from ((" + sent + ") union all (" + received + ")) t" + ORDER_LIMIT;
+        return page(jdbc.query(sql, params, ROW), limit);
+    }
+
+    /**
+     * Payments made on an event's splits. An unknown event is an IllegalArgumentException.
+     */
+    @Transactional(readOnly = true)
+    public TimeKeysetPage<TransactionRow> forEvent(Long eventId, Filter filter, TimeKeysetPage.Key after, int limit) {
+        MapSqlParameterSource params = params(filter, after, limit).addValue("eventId", eventId);
+        String sql = "select " + COLUMNS + " from transactions where event_id = :eventId"
+                + conditions(filter, after, "(from_user_id = :counterpartyId or to_user_id = :counterpartyId)")
+                + ORDER_LIMIT;
+        List<TransactionRow> rows = jdbc.query(sql, params, ROW);
+        // only an empty page needs to tell "no payments" from "no event"
+        if (rows.isEmpty() && !eventRepo.existsById(eventId)) throw new IllegalArgumentException("Event not found");
+        return page(rows, limit);
+    }
+
+    // only the predicates that are set, so each query keeps a plain index range condition
+    private static String conditions(Filter filter, TimeKeysetPage.Key after, String counterparty) {
+        StringBuilder sb = new StringBuilder();
+        if (filter.from() != null) sb.append(" and ts >= :from");
+        if (filter.to() != null) sb.append(" and ts < :to");
+        if (after != null) sb.append(" and (ts, id) < (:afterTs, :afterId)");
+        if (filter.counterpartyId() != null) sb.append(" and ").append(counterparty);
+        return sb.toString();
+    }
+
+    private static MapSqlParameterSource params(Filter filter, TimeKeysetPage.Key after, int limit) {
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("limit", limit + 1);
+        if (filter.from() != null) params.addValue("from", Timestamp.valueOf(filter.from()));
+        if (filter.to() != null) params.addValue("to", Timestamp.valueOf(filter.to()));
+        if (filter.counterpartyId() != null) params.addValue("counterpartyId", filter.counterpartyId());
+        if (after != null) {
+            params.addValue("afterTs", Timestamp.valueOf(after.ts()));
+            params.addValue("afterId", after.id());
+        }
+        return params;
+    }
+
+    private static TimeKeysetPage<TransactionRow> page(List<TransactionRow> rows, int limit) {
+        return TimeKeysetPage.of(rows, limit, r -> new TimeKeysetPage.Key(r.ts(), r.id()));
+    }
+}
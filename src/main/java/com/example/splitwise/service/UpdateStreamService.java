@@ -0,0 +1,258 @@
+package com.example.splitwise.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-user Server-Sent Events connections (GET /api/stream) and the updates pushed to them.
+ *
+ * Writers call {@link #publish} inside their transaction; updates are collected per
+ * transaction and handed out only after it commits, so a rolled back change is never
+ * announced. Each update is serialized once, whatever the number of receivers.
+ *
+ * Every connection has a bounded queue drained by its own short-lived virtual thread, so a
+ * slow client never blocks a writer or the other clients. A connection whose queue
+ * overflows is closed; the client reconnects and reloads its state. Idle connections get
+ * a heartbeat comment, which also finds the ones that went away.
+ *
+ * Metrics: stream.connections (gauge), stream.dropped (counter: connections closed on overflow).
+ */
+@Service
+public class UpdateStreamService {
+
+    private final Map<Long, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final JsonMapper jsonMapper;
+    private final int bufferSize;
+    private final int maxPerUser;
+    private final long timeoutMs;
+    private final Counter dropped;
+
+    public UpdateStreamService(JsonMapper jsonMapper, MeterRegistry meterRegistry,
+                               @Value("${app.stream.buffer-size:64}") int bufferSize,
+                               @Value("${app.stream.max-per-user:5}") int maxPerUser,
+                               @Value("${app.stream.timeout-ms:1800000}") long timeoutMs) {
+        this.jsonMapper = jsonMapper;
+        this.bufferSize = bufferSize;
+        this.maxPerUser = maxPerUser;
+        this.timeoutMs = timeoutMs;
+        Gauge.builder("stream.connections", connections, AtomicInteger::get)
+                .description("Open update stream connections")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("stream.dropped")
+                .description("Update stream connections closed because the client fell behind")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Open a stream for a user. The oldest connection is closed past max-per-user.
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber s = new Subscriber(userId, emitter);
+        emitter.onCompletion(s::detach);
+        emitter.onTimeout(s::close);
+        emitter.onError(e -> s.detach());
+
+        // added under the map's lock, so a concurrent detach cannot drop the list it goes into
+        List<Subscriber> list = subscribers.compute(userId, (k, v) -> {
+            List<Subscriber> l = v != null ? v : new CopyOnWriteArrayList<>();
+            l.add(s);
+            return l;
+        });
+        connections.incrementAndGet();
+        Subscriber[] open = list.toArray(Subscriber[]::new);
+        for (int i = 0; i < open.length - maxPerUser; i++) {
+            open[i].close();
+        }
+        // commits the response headers at once, so the client sees the stream open
+        s.offer(SseEmitter.event().name("ready").data("{}").build());
+        return emitter;
+    }
+
+    /**
+     * True when at least one of the users has an open stream; lets writers skip building updates.
+     */
+    public boolean isWatched(Collection<Long> userIds) {
+        if (subscribers.isEmpty()) return false;
+        for (Long id : userIds) {
+            if (id != null && subscribers.containsKey(id)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Send an update (SSE event name = type, data = JSON of data) to the users' streams once
+     * the surrounding transaction commits, or at once outside a transaction.
+     */
+    public void publish(Collection<Long> userIds, String type, Object data) {
+        if (!isWatched(userIds)) return;
+        Pending update = new Pending(userIds.stream().filter(Objects::nonNull).distinct().toList(), type, data);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deliver(List.of(update));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<Pending> pending = (List<Pending>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<Pending> batch = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, batch);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deliver(batch);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(UpdateStreamService.this);
+                }
+            });
+            pending = batch;
+        }
+        pending.add(update);
+    }
+
+    private record Pending(List<Long> userIds, String type, Object data) {
+    }
+
+    /** "balance": change of the receiver's youOwe / owedToYou (not the new totals) */
+    public record BalanceUpdate(BigDecimal youOwe, BigDecimal owedToYou) {
+    }
+
+    /** "split": a split after a payment or an edit; sent to its participant and the event creator */
+    public record SplitUpdate(Long debitorId, Long eventId, BigDecimal remaining, boolean settled) {
+
+        public static SplitUpdate of(Long debitorId, BalanceService.SplitState s) {
+            return new SplitUpdate(debitorId, s.eventId(), s.debAmount().subtract(s.amountPaid()), s.settled());
+        }
+    }
+
+    /** "event": an event was created or cancelled; sent to its creator and participants */
+    public record EventUpdate(Long eventId, String title, String status) {
+    }
+
+    /**
+     * Announce a split change to its participant and the event creator.
+     */
+    public void splitChanged(Long debitorId, BalanceService.SplitState after) {
+        publish(Arrays.asList(after.userId(), after.creatorId()), "split", SplitUpdate.of(debitorId, after));
+    }
+
+    private void deliver(List<Pending> updates) {
+        for (Pending u : updates) {
+            // rendered to wire frames once; the set is only read when sent
+            Set<ResponseBodyEmitter.DataWithMediaType> frames =
+                    SseEmitter.event().name(u.type()).data(jsonMapper.writeValueAsString(u.data())).build();
+            for (Long userId : u.userIds()) {
+                List<Subscriber> list = subscribers.get(userId);
+                if (list != null) list.forEach(s -> s.offer(frames));
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        if (subscribers.isEmpty()) return;
+        Set<ResponseBodyEmitter.DataWithMediaType> frames = SseEmitter.event().comment("hb").build();
+        subscribers.values().forEach(list -> list.forEach(s -> s.offer(frames)));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        subscribers.values().forEach(list -> list.forEach(Subscriber::close));
+        senders.shutdown();
+    }
+
+    private final class Subscriber {
+
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean detached = new AtomicBoolean();
+
+        Subscriber(Long userId, SseEmitter emitter) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        void offer(Set<ResponseBodyEmitter.DataWithMediaType> frames) {
+            if (detached.get()) return;
+            if (!queue.offer(frames)) {
+                dropped.increment();
+                close();
+                return;
+            }
+            if (draining.compareAndSet(false, true)) senders.execute(this::drain);
+        }
+
+        private void drain() {
+            try {
+                Set<ResponseBodyEmitter.DataWithMediaType> frames;
+                while ((frames = queue.poll()) != null) {
+                    emitter.send(frames);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // client gone or emitter already completed
+                close();
+            } finally {
+                draining.set(false);
+            }
+            // an offer may have slipped in after the last poll
+            if (!queue.isEmpty() && !detached.get() && draining.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        void close() {
+            detach();
+            try {
+                emitter.complete();
+            } catch (IllegalStateException ignored) {
+                // already completed
+            }
+        }
+
+        void detach() {
+            if (!detached.compareAndSet(false, true)) return;
+            queue.clear();
+            connections.decrementAndGet();
+            subscribers.computeIfPresent(userId, (k, list) -> {
+                list.remove(this);
+                return list.isEmpty() ? null : list;
+            });
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package com.example.splitwise.service;
 
 import com.example.splitwise.model.User;
+import com.example.splitwise.model.UserBalance;
 import com.example.splitwise.repo.DebitorRepo;
+import com.example.splitwise.repo.EventRepo;
 import com.example.splitwise.repo.UserRepo;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class UserService {
@@ -17,10 +32,47 @@ public class UserService {
     private final UserRepo userRepo;
     @Autowired
     private final DebitorRepo debitorRepo;
+    private final EventRepo eventRepo;
+    private final BalanceService balanceService;
+    private final PairBalanceService pairBalanceService;
+    // minimal profiles for GET /api/users/{id}; evicted after commit by every write that changes them
+    private final Cache<Long, UserProfile> profiles;
+    // bumped by every profile invalidation; lets getProfile detect one that raced its load
+    private final AtomicLong profileEpoch = new AtomicLong();
+    private final VerifiedTokenCache tokenCache;
 
-    public UserService(UserRepo userRepo, DebitorRepo debitorRepo){
+    public UserService(UserRepo userRepo, DebitorRepo debitorRepo, EventRepo eventRepo, BalanceService balanceService,
+                       PairBalanceService pairBalanceService, VerifiedTokenCache tokenCache,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.users.cache.max-size:10000}") long maxSize,
+                       @Value("${app.users.cache.ttl-seconds:300}") long ttlSeconds){
         this.userRepo = userRepo;
         this.debitorRepo = debitorRepo;
+        this.eventRepo = eventRepo;
+        this.balanceService = balanceService;
+        this.pairBalanceService = pairBalanceService;
+        this.tokenCache = tokenCache;
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        // cache_gets_total{result="hit|miss"}, cache_evictions_total, cache_size ...
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles, "userProfiles");
+    }
+
+    /**
+     * The public view of a user: what GET /api/users/{id} returns. version is the user's @Version (its ETag).
+     */
+    public record UserProfile(Long id, String username, BigDecimal total, long version) {
+    }
+
+    /**
+     * What GET /api/users/me returns, read through projections (no managed entities).
+     */
+    public record MeView(Long id, String email, String username, BigDecimal total, boolean emailVerified,
+                         BigDecimal youOwe, BigDecimal owedToYou,
+                         List<DebitorRepo.UserSplitRow> debitors, List<EventRepo.CreatedRow> events) {
     }
 
     @Transactional
@@ -40,17 +92,92 @@ public class UserService {
         return opt;
     }
 
+    /**
+     * Minimal profile by primary key, served from the profile cache. Unknown ids are not cached.
+     */
+    public Optional<UserProfile> getProfile(Long id){
+        UserProfile cached = profiles.getIfPresent(id);
+        if (cached != null) return Optional.of(cached);
+        // loaded outside the cache's compute lock: a virtual thread blocked on JDBC there would pin its carrier
+        long epoch = profileEpoch.get();
+        Optional<UserProfile> loaded = userRepo.findById(id)
+                .map(u -> new UserProfile(u.getId(), u.getUsername(), u.getTotal(), u.getVersion()));
+        loaded.ifPresent(p -> {
+            profiles.put(id, p);
+            // an invalidation since the read may have run before this put: take the (possibly stale) entry out again
+            if (profileEpoch.get() != epoch) profiles.asMap().remove(id, p);
+        });
+        return loaded;
+    }
 
+    private void invalidateProfile(Long id){
+        // epoch first: a getProfile that read before this point sees the change after its put
+        profileEpoch.incrementAndGet();
+        profiles.invalidate(id);
+    }
 
+    private void evictProfileAfterCommit(Long id){
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateProfile(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateProfile(id);
+            }
+        });
+    }
+
+    /**
+     * Resolve many users with one query and without loading their collections.
+     * Users come back in the order of ids (repeats included); unknown ids are
+     * reported together.
+     */
+    @Transactional(readOnly = true)
+    public List<User> getUsersByIds(List<Long> ids){
+        if (ids.contains(null)) throw new IllegalArgumentException("User id is required");
+        Map<Long, User> byId = new HashMap<>();
+        userRepo.findAllById(new LinkedHashSet<>(ids)).forEach(u -> byId.put(u.getId(), u));
+        List<Long> missing = ids.stream().filter(id -> !byId.containsKey(id)).distinct().toList();
+        if (!missing.isEmpty()) throw new IllegalArgumentException("User not found: " + missing);
+        return ids.stream().map(byId::get).toList();
+    }
+
+
+
+    /**
+     * Users in id order, one keyset page at a time.
+     */
     @Transactional(readOnly = true)
-    public List<User> getAllUsers(){
-        return userRepo.findAll();
+    public KeysetPage<UserRepo.SummaryRow> getUsers(long afterId, int limit){
+        return KeysetPage.of(userRepo.findSummaryPage(afterId, Limit.of(limit + 1)), limit, UserRepo.SummaryRow::id);
     }
 
     @Transactional
     public User updateUser(User u){
-        return userRepo.save(u);
+        User saved = userRepo.save(u);
+        evictProfileAfterCommit(saved.getId());
+        // the update may have revoked tokens (password change bumps the token version)
+        tokenCache.refreshVersionAfterCommit(saved.getId());
+        return saved;
     }
+    /**
+     * Current @Version of a user, read by primary key without loading it.
+     */
+    @Transactional(readOnly = true)
+    public Optional<Long> getVersion(Long id){
+        return userRepo.findVersionById(id);
+    }
+
+    /**
+     * ETag of the /me view of a user, computed in the database without loading the user.
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> getProfileEtag(String email){
+        return userRepo.findProfileEtagByEmail(email);
+    }
+
     @Transactional(readOnly = true)
     public boolean existsById(Long id){
         return userRepo.existsById(id);
@@ -64,8 +191,23 @@ public class UserService {
 
     @Transactional
     public void deleteUser(Long id){
-        if (!userRepo.existsById(id)) throw new IllegalArgumentException("User not found");
-        userRepo.deleteById(id);
+        User user = userRepo.findById(id).orElseThrow(() -> new IllegalArgumentException("User not found"));
+
+        // the delete cascades to this user's splits and events: take each split out of the balances,
+        // pairs and event counters first, as deleting a single split does
+        BalanceService.Delta delta = balanceService.delta();
+        debitorRepo.findAllRemovedWithUser(id).forEach(d -> delta.split(BalanceService.SplitState.of(d), null));
+        balanceService.apply(delta);
+
+        userRepo.delete(user);
+        userRepo.flush();
+
+        balanceService.delete(id);
+        pairBalanceService.deleteAllFor(id);
+        evictProfileAfterCommit(id);
+        // outstanding tokens of a deleted user must stop authenticating now, not when they expire
+        tokenCache.refreshVersionAfterCommit(id);
+        tokenCache.evictSubjectAfterCommit(user.getEmail());
     }
     @Transactional(readOnly = true)
     public boolean existsByUsername(String username) {
@@ -88,7 +230,9 @@ public class UserService {
 
         User u = userRepo.findByEmail(email).orElseThrow(() -> new IllegalArgumentException("user_not_found"));
         u.setUsername(username);
-        return userRepo.save(u);
+        User saved = userRepo.save(u);
+        evictProfileAfterCommit(saved.getId());
+        return saved;
     }
 
     // in UserService.java
@@ -114,45 +258,45 @@ public class UserService {
         });
         return opt;
     }
-    @Transactional(readOnly = true)
-    public User getUserWithCollectionsByEmail(String email) {
-        var opt = userRepo.findByEmail(email);
-        if (opt.isEmpty()) return null;
-        User u = opt.get();
-        // touch collections to load them
-        u.getDebitors().size();
-        u.getEvents().size();
-        u.getEvents().forEach(e -> e.getSplits().size());
-        return u;
-    }
-    public BigDecimal computeYouOwe(User u) {
-        if (u == null) return BigDecimal.ZERO;
-        return u.getDebitors().stream()
-//                .filter(Debitor::isIncluded) // optional: only included
-                .filter(d -> !d.isSettled())
-                .map(d -> {
-                    BigDecimal deb = d.getDebAmount() == null ? BigDecimal.ZERO : d.getDebAmount();
-                    BigDecimal paid = d.getAmountPaid() == null ? BigDecimal.ZERO : d.getAmountPaid();
-                    return deb.subtract(paid);
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    /**
+     * The /me view: the user with its balances, then its splits and its events, three queries in all.
+     * Not read-only: a user without a balance row yet gets it built here.
+     */
+    @Transactional
+    public Optional<MeView> getMe(String email) {
+        return userRepo.findProfileRowByEmail(email).map(p -> {
+            BigDecimal youOwe = p.youOwe();
+            BigDecimal owedToYou = p.owedToYou();
+            if (youOwe == null) {
+                UserBalance balance = balanceService.getBalance(p.id());
+                youOwe = balance.getYouOwe();
+                owedToYou = balance.getOwedToYou();
+            }
+            return new MeView(p.id(), p.email(), p.username(), p.total() == null ? BigDecimal.ZERO : p.total(),
+                    p.emailVerified(), youOwe, owedToYou,
+                    debitorRepo.findUserSplitRows(p.id()), eventRepo.findCreatedRows(p.id()));
+        });
     }
     public Optional<User> getByEmail(String email) {
         return userRepo.findByEmail(email);
     }
 
-    public BigDecimal computeOwedToYou(User u) {
-        if (u == null) return BigDecimal.ZERO;
-        return u.getEvents().stream()
-                .filter(e -> !Boolean.TRUE.equals(e.isCancelled()))
-                .map(e -> {
-                    BigDecimal total = e.getTotal() == null ? BigDecimal.ZERO : e.getTotal();
-                    BigDecimal paid = e.getSplits().stream()
-                            .map(s -> s.getAmountPaid() == null ? BigDecimal.ZERO : s.getAmountPaid())
-                            .reduce(BigDecimal.ZERO, BigDecimal::add);
-                    return total.subtract(paid);
-                })
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    public Optional<Long> getIdByEmail(String email) {
+        return userRepo.findIdByEmail(email);
+    }
+
+    /**
+     * Materialized youOwe / owedToYou, maintained by BalanceService on every split / event write.
+     */
+    public UserBalance getBalance(User u) {
+        return balanceService.getBalance(u.getId());
+    }
+
+    /**
+     * Net amount per counterparty (positive: this user owes them), served from pair_balances.
+     */
+    public Map<Long, BigDecimal> getPairBalances(Long userId) {
+        return pairBalanceService.getBalances(userId);
     }
 
 
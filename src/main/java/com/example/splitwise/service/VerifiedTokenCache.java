@@ -0,0 +1,184 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.repo.UserRepo;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.CredentialsContainer;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * Bearer tokens that have already been verified, with the principal they resolved to.
+ *
+ * Keyed by the SHA-256 of the token (the raw token is never held), each entry expires
+ * when its token does, and the cache is bounded by size. A hit skips parsing and the
+ * HMAC check; a miss verifies once and caches only successes.
+ *
+ * Tokens carry uid / name / roles / ver claims, so the principal is built from the
+ * claims alone. The only per-user state consulted is the token version (bumped on
+ * password change), read by primary key and cached for a short TTL. Tokens issued
+ * before those claims existed fall back to one user lookup by email, and count as
+ * token version 0: the first password change revokes them like any other token.
+ */
+@Service
+public class VerifiedTokenCache {
+
+    private final JwtService jwtService;
+    private final MyUserDetailsService userDetailsService;
+    private final UserRepo userRepo;
+    private final Cache<String, Entry> tokens;
+    // current token version per user id; a stale entry lives at most versionTtl on other instances
+    private final Cache<Long, Integer> versions;
+
+    public VerifiedTokenCache(JwtService jwtService, MyUserDetailsService userDetailsService,
+                              UserRepo userRepo, MeterRegistry meterRegistry,
+                              @Value("${app.jwt.cache.max-size:10000}") long maxSize,
+                              @Value("${app.jwt.version-ttl-seconds:30}") long versionTtlSeconds) {
+        this.jwtService = jwtService;
+        this.userDetailsService = userDetailsService;
+        this.userRepo = userRepo;
+        this.tokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(Expiry.creating((String key, Entry e) ->
+                        Duration.between(Instant.now(), e.expiresAt())))
+                .recordStats()
+                .build();
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(versionTtlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, tokens, "verifiedTokens");
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, "tokenVersions");
+    }
+
+    // purpose is null for plain access tokens
+    private record Entry(UserDetails principal, Long userId, int tokenVersion, String purpose, Instant expiresAt) {
+    }
+
+    /**
+     * The principal for a bearer token, or null if the token is invalid, expired, revoked or its user is gone.
+     * Single-purpose tokens (stream tickets) are not bearer tokens and are refused.
+     */
+    public UserDetails authenticate(String token) {
+        return authenticate(token, null);
+    }
+
+    /**
+     * The principal for a stream ticket (see JwtService#generateStreamTicket), or null; access tokens are refused.
+     */
+    public UserDetails authenticateStreamTicket(String ticket) {
+        return authenticate(ticket, JwtService.PURPOSE_STREAM);
+    }
+
+    private UserDetails authenticate(String token, String purpose) {
+        String key = sha256(token);
+        Entry entry = tokens.getIfPresent(key);
+        if (entry == null || !entry.expiresAt().isAfter(Instant.now())) {
+            entry = verify(token);
+            if (entry == null) return null;
+            tokens.put(key, entry);
+        }
+        if (!Objects.equals(entry.purpose(), purpose)) return null;
+
+        if (!isCurrent(entry.userId(), entry.tokenVersion())) {
+            tokens.invalidate(key);
+            return null;
+        }
+        return entry.principal();
+    }
+
+    private Entry verify(String token) {
+        JwtService.VerifiedToken verified = jwtService.verify(token).orElse(null);
+        if (verified == null) return null;
+
+        if (verified.userId() != null && verified.tokenVersion() != null) {
+            UserDetails principal = User.withUsername(verified.subject())
+                    .password("")
+                    .authorities((verified.roles() != null ? verified.roles() : MyUserDetailsService.AUTHORITIES)
+                            .toArray(String[]::new))
+                    .build();
+            return new Entry(principal, verified.userId(), verified.tokenVersion(), verified.purpose(),
+                    verified.expiresAt());
+        }
+
+        // legacy token: resolve the principal from the database once
+        UserDetails principal;
+        try {
+            principal = userDetailsService.loadUserByUsername(verified.subject());
+        } catch (UsernameNotFoundException e) {
+            return null;
+        }
+        Long userId = verified.userId() != null ? verified.userId()
+                : userRepo.findIdByEmail(verified.subject()).orElse(null);
+        if (userId == null) return null;
+        // the password hash is not needed past this point; don't keep it for the token's lifetime
+        if (principal instanceof CredentialsContainer c) c.eraseCredentials();
+        int tokenVersion = verified.tokenVersion() != null ? verified.tokenVersion() : 0;
+        return new Entry(principal, userId, tokenVersion, verified.purpose(), verified.expiresAt());
+    }
+
+    private boolean isCurrent(Long userId, int tokenVersion) {
+        Integer current = versions.getIfPresent(userId);
+        if (current == null) {
+            // queried outside the cache's compute lock (no carrier pinning); unknown (deleted) users are not cached
+            current = userRepo.findTokenVersionById(userId).orElse(null);
+            if (current == null) return false;
+            versions.put(userId, current);
+        }
+        return current == tokenVersion;
+    }
+
+    /**
+     * Re-read a user's token version once the surrounding transaction commits (after a
+     * password change or delete), so revoked tokens stop working on this instance at once.
+     */
+    public void refreshVersionAfterCommit(Long userId) {
+        runAfterCommit(() -> versions.invalidate(userId));
+    }
+
+    /**
+     * Drop every cached token of a user (by email), once the surrounding transaction commits.
+     */
+    public void evictSubjectAfterCommit(String email) {
+        runAfterCommit(() -> tokens.asMap().values().removeIf(e -> e.principal().getUsername().equals(email)));
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static String sha256(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+-- Schema as the entities define it when migrations were introduced.
+--
+-- Databases created earlier by ddl-auto=update are baselined at version 0 (see
+-- spring.flyway.baseline-version), so this script also runs against them: every statement
+-- is idempotent and only adds what an older schema may be missing.
+
+create sequence if not exists users_seq start with 1 increment by 50;
+create sequence if not exists events_seq start with 1 increment by 50;
+create sequence if not exists debitors_seq start with 1 increment by 50;
+create sequence if not exists transactions_seq start with 1 increment by 50;
+create sequence if not exists mail_outbox_seq start with 1 increment by 50;
+
+create table if not exists users (
+    id bigint not null,
+    username varchar(255) unique,
+    total numeric(15,2),
+    mail_given boolean,
+    email varchar(255),
+    verification_token varchar(255),
+    verification_expires_at timestamp(6),
+    password varchar(255) not null,
+    token_version integer default 0 not null,
+    version bigint default 0 not null,
+    primary key (id)
+);
+
+create table if not exists events (
+    id bigint not null,
+    title varchar(255),
+    created_at timestamp(6),
+    creator_id bigint references users,
+    total numeric(15,2),
+    cancelled boolean not null,
+    version bigint default 0 not null,
+    paid_total numeric(15,2) default 0 not null,
+    outstanding_total numeric(15,2) default 0 not null,
+    split_count integer default 0 not null,
+    settled_count integer default 0 not null,
+    fully_settled boolean default false not null,
+    primary key (id)
+);
+
+create table if not exists debitors (
+    id bigint not null,
+    user_id bigint references users,
+    event_id bigint references events,
+    deb_amount numeric(15,2),
+    amount_paid numeric(15,2),
+    settled boolean not null,
+    included boolean not null,
+    paid_at timestamp(6),
+    version bigint,
+    primary key (id)
+);
+
+create table if not exists transactions (
+    id bigint not null,
+    ts timestamp(6),
+    from_user_id bigint references users,
+    to_user_id bigint references users,
+    amount numeric(15,2),
+    event_id bigint,
+    note varchar(255),
+    primary key (id)
+);
+
+create table if not exists user_balances (
+    user_id bigint not null,
+    you_owe numeric(15,2) not null,
+    owed_to_you numeric(15,2) not null,
+    primary key (user_id)
+);
+
+create table if not exists pair_balances (
+    debtor_id bigint not null,
+    creditor_id bigint not null,
+    amount numeric(15,2) not null,
+    primary key (creditor_id, debtor_id)
+);
+
+create table if not exists idempotency_keys (
+    scope_key varchar(64) not null,
+    fingerprint varchar(64) not null,
+    status integer,
+    content_type varchar(255),
+    body bytea,
+    created_at timestamp(6) not null,
+    primary key (scope_key)
+);
+
+create table if not exists mail_outbox (
+    id bigint not null,
+    to_address varchar(255) not null,
+    subject varchar(255) not null,
+    html text not null,
+    status varchar(16) not null,
+    attempts integer not null,
+    next_attempt_at timestamp(6) not null,
+    sent_at timestamp(6),
+    last_error varchar(1000),
+    created_at timestamp(6) not null,
+    primary key (id)
+);
+
+-- columns added to tables that predate them
+alter table users add column if not exists token_version integer default 0 not null;
+alter table users add column if not exists version bigint default 0 not null;
+alter table events add column if not exists version bigint default 0 not null;
+alter table events add column if not exists paid_total numeric(15,2) default 0 not null;
+alter table events add column if not exists outstanding_total numeric(15,2) default 0 not null;
+alter table events add column if not exists split_count integer default 0 not null;
+alter table events add column if not exists settled_count integer default 0 not null;
+alter table events add column if not exists fully_settled boolean default false not null;
+
+create index if not exists idx_users_email on users (email);
+create index if not exists idx_events_creator_id on events (creator_id);
+create index if not exists idx_debitors_event_id_id on debitors (event_id, id);
+create index if not exists idx_debitors_user_id on debitors (user_id);
+create index if not exists idx_idempotency_keys_created_at on idempotency_keys (created_at);
+create index if not exists idx_mail_outbox_due on mail_outbox (status, next_attempt_at);
+
+-- ids used to come from IDENTITY columns: move each sequence past the highest id so the
+-- next pooled block is free (never backwards)
+select setval('users_seq', greatest((select coalesce(max(id), 0) from users), (select last_value from users_seq), 1));
+select setval('events_seq', greatest((select coalesce(max(id), 0) from events), (select last_value from events_seq), 1));
+select setval('debitors_seq', greatest((select coalesce(max(id), 0) from debitors), (select last_value from debitors_seq), 1));
+select setval('transactions_seq', greatest((select coalesce(max(id), 0) from transactions), (select last_value from transactions_seq), 1));
+
+-- settlement counters of events written before the counters existed
+update events e
+set paid_total = s.paid,
+    outstanding_total = s.outstanding,
+    split_count = s.splits,
+    settled_count = s.settled,
+    fully_settled = (s.splits > 0 and s.settled = s.splits)
+from (
+    select d.event_id,
+           coalesce(sum(d.amount_paid), 0) as paid,
+           coalesce(sum(case when d.settled then 0 else coalesce(d.deb_amount, 0) - coalesce(d.amount_paid, 0) end), 0) as outstanding,
+           count(*) as splits,
+           count(*) filter (where d.settled) as settled
+    from debitors d
+    group by d.event_id
+) s
+where s.event_id = e.id and e.split_count <> s.splits;
@@ -0,0 +1,20 @@
+-- Indexes for the hot access paths.
+
+-- a user's splits, open ones first: youOwe rebuilds, /me, pair rebuilds (covers user_id alone)
+create index if not exists idx_debitors_user_id_settled on debitors (user_id, settled);
+drop index if exists idx_debitors_user_id;
+-- debitors(event_id) is served by idx_debitors_event_id_id (event_id, id)
+
+-- a creator's open events: owedToYou rebuilds (covers creator_id alone)
+create index if not exists idx_events_creator_id_cancelled on events (creator_id, cancelled);
+drop index if exists idx_events_creator_id;
+
+-- a user's payments, sent and received, in time order; an event's payments
+create index if not exists idx_transactions_from_user_id_ts on transactions (from_user_id, ts);
+create index if not exists idx_transactions_to_user_id_ts on transactions (to_user_id, ts);
+create index if not exists idx_transactions_event_id on transactions (event_id);
+
+-- case-insensitive username search (UserRepo.findByUsernameIgnoreCase), e-mail verification
+create index if not exists idx_users_lower_username on users (lower(username));
+create index if not exists idx_users_verification_token on users (verification_token);
+-- users(email): idx_users_email (V1)
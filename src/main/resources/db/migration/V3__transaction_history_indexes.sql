@@ -0,0 +1,15 @@
+-- Payment history (GET /api/users/me/transactions, GET /api/events/{id}/transactions) pages
+-- through (ts, id) newest first. These replace the V2 transaction indexes: the key ends in
+-- (ts, id) so a page is one range scan in order, and the other columns are included so the
+-- scan never visits the table.
+
+create index if not exists idx_transactions_from_user_id_ts_id on transactions (from_user_id, ts, id)
+    include (to_user_id, amount, event_id, note);
+create index if not exists idx_transactions_to_user_id_ts_id on transactions (to_user_id, ts, id)
+    include (from_user_id, amount, event_id, note);
+create index if not exists idx_transactions_event_id_ts_id on transactions (event_id, ts, id)
+    include (from_user_id, to_user_id, amount, note);
+
+drop index if exists idx_transactions_from_user_id_ts;
+drop index if exists idx_transactions_to_user_id_ts;
+drop index if exists idx_transactions_event_id;
@@ -0,0 +1,4 @@
+-- POST /api/events/{id}/remind skips splits reminded within app.reminders.cooldown-hours;
+-- this is when each split was last reminded (null: never).
+
+alter table debitors add column if not exists last_reminded_at timestamp(6);
@@ -0,0 +1,15 @@
+-- The V3 history indexes also carried note, a free-text varchar(255), in their INCLUDE lists,
+-- which roughly doubled their size and write cost. They are rebuilt without it: a page still
+-- is one ordered range scan, and the heap supplies note for the limit + 1 rows it returns.
+
+drop index if exists idx_transactions_from_user_id_ts_id;
+create index idx_transactions_from_user_id_ts_id on transactions (from_user_id, ts, id)
+    include (to_user_id, amount, event_id);
+
+drop index if exists idx_transactions_to_user_id_ts_id;
+create index idx_transactions_to_user_id_ts_id on transactions (to_user_id, ts, id)
+    include (from_user_id, amount, event_id);
+
+drop index if exists idx_transactions_event_id_ts_id;
+create index idx_transactions_event_id_ts_id on transactions (event_id, ts, id)
+    include (from_user_id, to_user_id, amount);
@@ -0,0 +1,6 @@
+-- pair_balances' primary key leads with creditor_id, so reading a user's counterparties by
+-- debtor_id (PairBalanceRepo.findNonZeroByDebtorId, findCounterpartyIds) scanned the table.
+-- Pairs are stored in both orientations, so every per-user read can go through debtor_id;
+-- amount is included so the non-zero filter is answered from the index alone.
+create index if not exists idx_pair_balances_debtor_id_creditor_id on pair_balances (debtor_id, creditor_id)
+    include (amount);
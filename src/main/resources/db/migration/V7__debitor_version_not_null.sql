@@ -0,0 +1,7 @@
+-- debitors.version was created nullable (V1 baseline of the former ddl-auto schema). A split with
+-- a null version never matched a version check (version = ?), so payments on it always failed
+-- as conflicting (PaymentService.payBatch), and version + 1 kept it null. Backfill and forbid nulls.
+
+update debitors set version = 0 where version is null;
+alter table debitors alter column version set default 0;
+alter table debitors alter column version set not null;
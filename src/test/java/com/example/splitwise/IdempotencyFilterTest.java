@@ -0,0 +1,184 @@
+package com.example.splitwise;
+
+import com.example.splitwise.service.CommitWatch;
+import com.example.splitwise.service.IdempotencyService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class IdempotencyFilterTest {
+
+    private final IdempotencyService service = mock(IdempotencyService.class);
+    private final IdempotencyFilter filter = new IdempotencyFilter(service);
+
+    @BeforeEach
+    void authenticate() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                "alice@example.com", null, List.of(new SimpleGrantedAuthority("ROLE_USER"))));
+    }
+
+    @AfterEach
+    void clear() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void firstRequestRunsAndIsStored() throws Exception {
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.ACQUIRED, null));
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain(new EchoServlet());
+
+        filter.doFilter(request("k1", "{\"amount\":10}"), res, chain);
+
+        assertEquals(201, res.getStatus());
+        assertEquals("{\"amount\":10}", res.getContentAsString());
+        verify(service).complete(anyString(), anyString(), eq(201), eq("application/json"),
+                eq("{\"amount\":10}".getBytes(StandardCharsets.UTF_8)));
+        verify(service, never()).release(anyString());
+    }
+
+    @Test
+    void replayDoesNotReachTheController() throws Exception {
+        byte[] body = "{\"id\":7}".getBytes(StandardCharsets.UTF_8);
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.REPLAY,
+                new IdempotencyService.StoredResponse("fp", 201, "application/json", body, null)));
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("k1", "{\"amount\":10}"), res, chain);
+
+        assertNull(chain.getRequest());
+        assertEquals(201, res.getStatus());
+        assertEquals("true", res.getHeader("Idempotent-Replayed"));
+        assertArrayEquals(body, res.getContentAsByteArray());
+    }
+
+    @Test
+    void reusedKeyWithDifferentRequestIsRejected() throws Exception {
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.MISMATCH, null));
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("k1", "{\"amount\":11}"), res, chain);
+
+        assertNull(chain.getRequest());
+        assertEquals(422, res.getStatus());
+    }
+
+    @Test
+    void serverErrorReleasesTheKey() throws Exception {
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.ACQUIRED, null));
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                resp.setStatus(500);
+            }
+        });
+
+        filter.doFilter(request("k1", "{}"), res, chain);
+
+        verify(service).release(anyString());
+        verify(service, never()).complete(anyString(), anyString(), anyInt(), any(), any());
+    }
+
+    @Test
+    void serverErrorAfterACommitKeepsTheKey() throws Exception {
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.ACQUIRED, null));
+        when(service.unwatchCommits()).thenReturn(true);
+        MockHttpServletResponse res = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                resp.setStatus(500);
+            }
+        });
+
+        filter.doFilter(request("k1", "{}"), res, chain);
+
+        // the write went through: a retry must get this response, not run it again
+        verify(service).complete(anyString(), anyString(), eq(500), any(), any());
+        verify(service, never()).release(anyString());
+    }
+
+    @Test
+    void asyncResponseIsStoredAfterTheAsyncDispatch() throws Exception {
+        when(service.begin(anyString(), anyString())).thenReturn(new IdempotencyService.Claim(IdempotencyService.State.ACQUIRED, null));
+        when(service.watchCommits()).thenReturn(new CommitWatch.Watch());
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(new AsyncController()).addFilters(filter).build();
+
+        MvcResult started = mvc.perform(post("/api/users").header("Idempotency-Key", "k1")
+                        .contentType("application/json").content("{\"name\":\"a\"}"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        verify(service, never()).complete(anyString(), anyString(), anyInt(), any(), any());
+
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isCreated())
+                .andExpect(content().string("{\"name\":\"a\"}"));
+        verify(service).complete(anyString(), anyString(), eq(201), eq("application/json"),
+                eq("{\"name\":\"a\"}".getBytes(StandardCharsets.UTF_8)));
+        verify(service, never()).release(anyString());
+    }
+
+    private static MockHttpServletRequest request(String key, String json) {
+        MockHttpServletRequest req = new MockHttpServletRequest("POST", "/api/payments/pay");
+        req.addHeader("Idempotency-Key", key);
+        req.setContentType("application/json");
+        req.setContent(json.getBytes(StandardCharsets.UTF_8));
+        return req;
+    }
+
+    // answers from another thread, like the password hashing endpoints do
+    @RestController
+    static class AsyncController {
+        @PostMapping("/api/users")
+        CompletableFuture<ResponseEntity<String>> create(@RequestBody String body) {
+            return CompletableFuture.supplyAsync(() -> ResponseEntity.status(201)
+                    .contentType(MediaType.APPLICATION_JSON).body(body));
+        }
+    }
+
+    // echoes the request body back as a 201, like a create endpoint would
+    private static final class EchoServlet extends HttpServlet {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            byte[] body = req.getInputStream().readAllBytes();
+            resp.setStatus(201);
+            resp.setContentType("application/json");
+            resp.getOutputStream().write(body);
+        }
+    }
+}
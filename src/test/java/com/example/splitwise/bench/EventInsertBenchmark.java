@@ -0,0 +1,186 @@
+package com.example.splitwise.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event creation latency against participant count, IDENTITY vs pooled SEQUENCE ids.
+ *
+ * Replays the statements Hibernate issues for EventService.createEvent with each id
+ * strategy: IDENTITY inserts row by row and reads back every generated key; SEQUENCE
+ * takes ids from an in-memory block (one nextval per 50 rows) and sends the splits as
+ * one JDBC batch, rewritten into a multi-row INSERT by the driver.
+ *
+ * Needs a Postgres reachable through DB_URL / DB_USERNAME / DB_PASSWORD (same defaults
+ * as the application); it creates and drops its own bench_* tables.
+ *
+ * mvn -Pbench test-compile exec:exec -Dbench=EventInsert
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventInsertBenchmark {
+
+    private static final int ALLOCATION_SIZE = 50;
+
+    @Param({"1", "10", "50"})
+    int participants;
+
+    @Param({"identity", "sequence"})
+    String ids;
+
+    Connection con;
+    PreparedStatement insertEvent;
+    PreparedStatement insertDebitor;
+    PreparedStatement nextEventBlock;
+    PreparedStatement nextDebitorBlock;
+
+    // pooled optimizer state, one per sequence: next id to hand out and end of the block
+    final long[] eventIds = new long[2];
+    final long[] debitorIds = new long[2];
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", env("DB_USERNAME", "postgres"));
+        props.setProperty("password", env("DB_PASSWORD", "postgres"));
+        props.setProperty("reWriteBatchedInserts", "true");
+        con = DriverManager.getConnection(env("DB_URL", "jdbc:postgresql://localhost:5432/splitwise_v2"), props);
+
+        try (Statement st = con.createStatement()) {
+            dropTables(st);
+            if (ids.equals("identity")) {
+                st.execute("create table bench_events (id bigint generated by default as identity primary key,"
+                        + " title varchar(255), total numeric(15,2), created_at timestamp)");
+                st.execute("create table bench_debitors (id bigint generated by default as identity primary key,"
+                        + " event_id bigint references bench_events, user_id bigint, deb_amount numeric(15,2),"
+                        + " amount_paid numeric(15,2), settled boolean, version bigint)");
+            } else {
+                st.execute("create sequence bench_events_seq start with 1 increment by " + ALLOCATION_SIZE);
+                st.execute("create sequence bench_debitors_seq start with 1 increment by " + ALLOCATION_SIZE);
+                st.execute("create table bench_events (id bigint primary key,"
+                        + " title varchar(255), total numeric(15,2), created_at timestamp)");
+                st.execute("create table bench_debitors (id bigint primary key,"
+                        + " event_id bigint references bench_events, user_id bigint, deb_amount numeric(15,2),"
+                        + " amount_paid numeric(15,2), settled boolean, version bigint)");
+            }
+        }
+
+        con.setAutoCommit(false);
+        if (ids.equals("identity")) {
+            insertEvent = con.prepareStatement(
+                    "insert into bench_events (title, total, created_at) values (?, ?, now())",
+                    Statement.RETURN_GENERATED_KEYS);
+            insertDebitor = con.prepareStatement(
+                    "insert into bench_debitors (event_id, user_id, deb_amount, amount_paid, settled, version)"
+                            + " values (?, ?, ?, 0, false, 0)",
+                    Statement.RETURN_GENERATED_KEYS);
+        } else {
+            insertEvent = con.prepareStatement(
+                    "insert into bench_events (title, total, created_at, id) values (?, ?, now(), ?)");
+            insertDebitor = con.prepareStatement(
+                    "insert into bench_debitors (event_id, user_id, deb_amount, amount_paid, settled, version, id)"
+                            + " values (?, ?, ?, 0, false, 0, ?)");
+            nextEventBlock = con.prepareStatement("select nextval('bench_events_seq')");
+            nextDebitorBlock = con.prepareStatement("select nextval('bench_debitors_seq')");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        con.setAutoCommit(true);
+        try (Statement st = con.createStatement()) {
+            dropTables(st);
+        }
+        con.close();
+    }
+
+    @Benchmark
+    public long createEvent() throws SQLException {
+        BigDecimal share = BigDecimal.valueOf(100, 2);
+        long eventId;
+        if (ids.equals("identity")) {
+            insertEvent.setString(1, "dinner");
+            insertEvent.setBigDecimal(2, share.multiply(BigDecimal.valueOf(participants)));
+            eventId = executeReturningKey(insertEvent);
+            for (int i = 0; i < participants; i++) {
+                insertDebitor.setLong(1, eventId);
+                insertDebitor.setLong(2, i + 1);
+                insertDebitor.setBigDecimal(3, share);
+                executeReturningKey(insertDebitor);
+            }
+        } else {
+            eventId = nextId(eventIds, nextEventBlock);
+            insertEvent.setString(1, "dinner");
+            insertEvent.setBigDecimal(2, share.multiply(BigDecimal.valueOf(participants)));
+            insertEvent.setLong(3, eventId);
+            insertEvent.executeUpdate();
+            for (int i = 0; i < participants; i++) {
+                insertDebitor.setLong(1, eventId);
+                insertDebitor.setLong(2, i + 1);
+                insertDebitor.setBigDecimal(3, share);
+                insertDebitor.setLong(4, nextId(debitorIds, nextDebitorBlock));
+                insertDebitor.addBatch();
+            }
+            insertDebitor.executeBatch();
+        }
+        con.commit();
+        return eventId;
+    }
+
+    private static long executeReturningKey(PreparedStatement ps) throws SQLException {
+        ps.executeUpdate();
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // same block arithmetic as Hibernate's pooled optimizer: nextval v owns [v - 49, v]
+    private static long nextId(long[] state, PreparedStatement nextBlock) throws SQLException {
+        if (state[0] == 0 || state[0] > state[1]) {
+            try (ResultSet rs = nextBlock.executeQuery()) {
+                rs.next();
+                state[1] = rs.getLong(1);
+            }
+            state[0] = Math.max(1, state[1] - ALLOCATION_SIZE + 1);
+        }
+        return state[0]++;
+    }
+
+    private static void dropTables(Statement st) throws SQLException {
+        st.execute("drop table if exists bench_debitors");
+        st.execute("drop table if exists bench_events");
+        st.execute("drop sequence if exists bench_debitors_seq");
+        st.execute("drop sequence if exists bench_events_seq");
+    }
+
+    private static String env(String name, String fallback) {
+        String v = System.getenv(name);
+        return v != null && !v.isBlank() ? v : fallback;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.splitwise.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop HTTP load against a running instance, to compare platform and virtual
+ * request threads (start the app once with VIRTUAL_THREADS=false, once with true).
+ *
+ * BENCH_CONCURRENCY clients (virtual threads here, so the driver itself is never the
+ * limit) each send requests back to back for BENCH_SECONDS after BENCH_WARMUP_SECONDS,
+ * cycling over the selected endpoints:
+ *
+ *   me     GET  /api/users/me
+ *   event  GET  /api/events/{BENCH_EVENT_ID}
+ *   pay    POST /api/payments/pay   0.01 towards a split of BENCH_DEBITOR_ID from the
+ *                                   matching BENCH_PAYER_ID (comma lists; client c uses pair c % n)
+ *
+ * Prints throughput, latency percentiles and non-2xx counts per endpoint. BENCH_TOKEN is
+ * a bearer token (POST /api/auth/login); CSRF uses a fixed cookie/header pair. Pay
+ * requests drain the splits, so use ones with large shares, and several of them: all
+ * clients paying one split mostly measures its optimistic-lock retries.
+ *
+ * mvn -Pbench test-compile exec:exec -Dbench.main=com.example.splitwise.bench.HttpLoadDriver -Dbench=me,event,pay
+ */
+public class HttpLoadDriver {
+
+    private static final String CSRF = "bench";
+
+    public static void main(String[] args) throws Exception {
+        String base = env("BENCH_URL", "http://localhost:8080");
+        String token = env("BENCH_TOKEN", "");
+        int concurrency = Integer.parseInt(env("BENCH_CONCURRENCY", "400"));
+        int seconds = Integer.parseInt(env("BENCH_SECONDS", "30"));
+        int warmup = Integer.parseInt(env("BENCH_WARMUP_SECONDS", "10"));
+        String eventId = env("BENCH_EVENT_ID", "1");
+        String[] debitorIds = env("BENCH_DEBITOR_ID", "1").split(",");
+        String[] payerIds = env("BENCH_PAYER_ID", "1").split(",");
+        if (debitorIds.length != payerIds.length) {
+            throw new IllegalArgumentException("BENCH_DEBITOR_ID and BENCH_PAYER_ID need the same number of entries");
+        }
+
+        List<String> selected = args.length == 0 || args[0].isBlank() || args[0].equals(".*")
+                ? List.of("me", "event", "pay")
+                : Arrays.asList(args[0].split(","));
+
+        Map<String, List<HttpRequest>> requests = new LinkedHashMap<>();
+        for (String name : selected) {
+            List<HttpRequest.Builder> builders = new ArrayList<>();
+            switch (name) {
+                case "me" -> builders.add(HttpRequest.newBuilder(URI.create(base + "/api/users/me")).GET());
+                case "event" -> builders.add(HttpRequest.newBuilder(URI.create(base + "/api/events/" + eventId)).GET());
+                case "pay" -> {
+                    for (int i = 0; i < debitorIds.length; i++) {
+                        builders.add(HttpRequest.newBuilder(URI.create(base + "/api/payments/pay"))
+                                .header("Content-Type", "application/json")
+                                .POST(HttpRequest.BodyPublishers.ofString("{\"debitorId\":" + debitorIds[i].trim()
+                                        + ",\"payerUserId\":" + payerIds[i].trim() + ",\"amount\":0.01}")));
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown endpoint: " + name + " (me, event, pay)");
+            }
+            requests.put(name, builders.stream()
+                    .map(b -> b.header("Authorization", "Bearer " + token)
+                            .header("Cookie", "XSRF-TOKEN=" + CSRF)
+                            .header("X-XSRF-TOKEN", CSRF)
+                            .timeout(Duration.ofSeconds(60))
+                            .build())
+                    .toList());
+        }
+        List<String> names = new ArrayList<>(requests.keySet());
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        names.forEach(n -> stats.put(n, new Stats()));
+
+        long start = System.nanoTime();
+        long measureFrom = start + Duration.ofSeconds(warmup).toNanos();
+        long end = measureFrom + Duration.ofSeconds(seconds).toNanos();
+
+        System.out.printf("%s: %d clients, %ds warmup + %ds, endpoints %s%n", base, concurrency, warmup, seconds, names);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < concurrency; c++) {
+                int offset = c;
+                clients.submit(() -> {
+                    int i = offset;
+                    while (true) {
+                        String name = names.get(i++ % names.size());
+                        long t0 = System.nanoTime();
+                        if (t0 >= end) return null;
+                        int status;
+                        try {
+                            List<HttpRequest> variants = requests.get(name);
+                            HttpRequest req = variants.get(offset % variants.size());
+                            status = client.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (Exception e) {
+                            status = -1;
+                        }
+                        long t1 = System.nanoTime();
+                        if (t0 >= measureFrom && t1 <= end) stats.get(name).record(t1 - t0, status);
+                    }
+                });
+            }
+        }
+
+        System.out.printf("%-6s %10s %9s %9s %9s %9s %9s%n", "", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "non-2xx");
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            e.getValue().print(e.getKey(), seconds);
+        }
+    }
+
+    private static final class Stats {
+        // latency histogram in 0.1 ms buckets up to 60 s
+        private final AtomicLong[] buckets = new AtomicLong[600_001];
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        Stats() {
+            Arrays.setAll(buckets, i -> new AtomicLong());
+        }
+
+        void record(long nanos, int status) {
+            buckets[(int) Math.min(nanos / 100_000, buckets.length - 1)].incrementAndGet();
+            count.incrementAndGet();
+            if (status < 200 || status >= 300) errors.incrementAndGet();
+        }
+
+        double percentile(double p) {
+            long target = (long) Math.ceil(count.get() * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].get();
+                if (seen >= target && seen > 0) return i / 10.0;
+            }
+            return 0;
+        }
+
+        void print(String name, int seconds) {
+            System.out.printf("%-6s %10.1f %9.1f %9.1f %9.1f %9.1f %9d%n", name, count.get() / (double) seconds,
+                    percentile(0.50), percentile(0.90), percentile(0.99), percentile(1.0), errors.get());
+        }
+    }
+
+    private static String env(String name, String fallback) {
+        String v = System.getenv(name);
+        return v != null && !v.isBlank() ? v : fallback;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.splitwise.bench;
+
+import com.example.splitwise.service.SettleUpEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of SettleUpEngine with group size.
+ *
+ * mvn -Pbench test-compile exec:exec -Dbench=SettleUpEngine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettleUpEngineBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    int members;
+
+    // outstanding splits per member, roughly what a busy group accumulates
+    @Param({"8"})
+    int debtsPerMember;
+
+    int[] debtor;
+    int[] creditor;
+    long[] cents;
+    int debts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom rnd = new SplittableRandom(42);
+        debts = members * debtsPerMember;
+        debtor = new int[debts];
+        creditor = new int[debts];
+        cents = new long[debts];
+        for (int i = 0; i < debts; i++) {
+            int d = rnd.nextInt(members);
+            int c = rnd.nextInt(members - 1);
+            debtor[i] = d;
+            creditor[i] = c >= d ? c + 1 : c;
+            cents[i] = 1 + rnd.nextLong(50_000);
+        }
+    }
+
+    @Benchmark
+    public SettleUpEngine.Transfers simplify() {
+        return SettleUpEngine.simplify(members, debtor, creditor, cents, debts);
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.splitwise.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceServiceTest {
+
+    private static final Long CREATOR = 1L;
+    private static final Long ALICE = 2L;
+    private static final Long EVENT = 10L;
+
+    private static BalanceService.SplitState split(boolean cancelled, boolean settled, String deb, String paid) {
+        return new BalanceService.SplitState(ALICE, CREATOR, EVENT, cancelled, settled,
+                new BigDecimal(deb), new BigDecimal(paid));
+    }
+
+    private static BalanceService.EventState event(boolean cancelled, String total) {
+        return new BalanceService.EventState(EVENT, CREATOR, cancelled, new BigDecimal(total));
+    }
+
+    @Test
+    void createEventAddsSharesAndTotal() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .event(null, event(false, "90.00"))
+                .split(null, split(false, false, "45.00", "0.00"));
+
+        assertEquals(new BigDecimal("45.00"), d.youOwe(ALICE));
+        assertEquals(new BigDecimal("90.00"), d.owedToYou(CREATOR));
+    }
+
+    @Test
+    void settlingPaymentMovesBothSides() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .split(split(false, false, "45.00", "20.00"), split(false, true, "45.00", "45.00"));
+
+        assertEquals(new BigDecimal("-25.00"), d.youOwe(ALICE));
+        assertEquals(new BigDecimal("-25.00"), d.owedToYou(CREATOR));
+        // pairs are keyed lower id first: creator (1) is owed 25.00 less by alice (2)
+        assertEquals(new BigDecimal("25.00"), d.pair(CREATOR, ALICE));
+    }
+
+    @Test
+    void creatorsOwnSplitIsNotAPair() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .split(null, new BalanceService.SplitState(CREATOR, CREATOR, EVENT, false, false,
+                        new BigDecimal("45.00"), BigDecimal.ZERO));
+
+        assertEquals(new BigDecimal("45.00"), d.youOwe(CREATOR));
+        assertEquals(0, d.pair(CREATOR, CREATOR).signum());
+    }
+
+    @Test
+    void cancellingDropsOnlyTheOutstandingPartForTheCreator() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .event(event(false, "90.00"), event(true, "90.00"))
+                .split(split(false, false, "45.00", "20.00"), split(true, false, "45.00", "20.00"));
+
+        // youOwe has never filtered cancelled events
+        assertEquals(0, d.youOwe(ALICE).signum());
+        assertEquals(new BigDecimal("-70.00"), d.owedToYou(CREATOR));
+    }
+
+    @Test
+    void settlingPaymentMovesEventCounters() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .split(split(false, false, "45.00", "20.00"), split(false, true, "45.00", "45.00"));
+
+        BalanceService.EventCounters c = d.counters(EVENT);
+        assertEquals(new BigDecimal("25.00"), c.paid);
+        assertEquals(new BigDecimal("-25.00"), c.outstanding);
+        assertEquals(0, c.splits);
+        assertEquals(1, c.settled);
+    }
+
+    @Test
+    void unchangedStateIsEmpty() {
+        BalanceService.Delta d = new BalanceService.Delta()
+                .split(split(false, false, "45.00", "20.00"), split(false, false, "45.00", "20.00"));
+
+        assertTrue(d.isEmpty());
+    }
+}
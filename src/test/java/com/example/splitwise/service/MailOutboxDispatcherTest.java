@@ -0,0 +1,220 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.MailOutbox;
+import com.example.splitwise.repo.MailOutboxRepo;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class MailOutboxDispatcherTest {
+
+    private static final SmtpStandIn smtp = SmtpStandIn.start();
+
+    @DynamicPropertySource
+    static void mailProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.mail.host", () -> "127.0.0.1");
+        registry.add("spring.mail.port", smtp::port);
+        registry.add("spring.mail.username", () -> "");
+        registry.add("spring.mail.properties.mail.smtp.auth", () -> "false");
+        registry.add("spring.mail.properties.mail.smtp.starttls.enable", () -> "false");
+        // the tests call dispatch() themselves
+        registry.add("app.mail.outbox.poll-ms", () -> "3600000");
+    }
+
+    @Autowired
+    private EmailService emailService;
+    @Autowired
+    private MailOutboxDispatcher dispatcher;
+    @Autowired
+    private MailOutboxRepo repo;
+    @Autowired
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void reset() {
+        repo.deleteAll();
+        smtp.reset();
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        smtp.close();
+    }
+
+    @Test
+    void batchGoesOutOverOneConnection() {
+        emailService.enqueue("a@example.com", "one", "<p>1</p>");
+        emailService.enqueue("b@example.com", "two", "<p>2</p>");
+        emailService.enqueue("c@example.com", "three", "<p>3</p>");
+
+        assertEquals(3, dispatcher.dispatch());
+
+        assertEquals(1, smtp.connections.get());
+        // update ... returning hands the leased rows back in no particular order
+        assertEquals(Set.of("a@example.com", "b@example.com", "c@example.com"), Set.copyOf(smtp.recipients));
+        assertEquals(3, smtp.recipients.size());
+        assertTrue(repo.findAll().stream().allMatch(m -> m.getStatus().equals("SENT") && m.getSentAt() != null));
+        assertEquals(0, dispatcher.dispatch());
+    }
+
+    @Test
+    void rejectedRecipientIsRetriedWithBackoff() {
+        emailService.enqueue("ok@example.com", "hello", "<p>hi</p>");
+        emailService.enqueue("reject@example.com", "hello", "<p>hi</p>");
+
+        assertEquals(1, dispatcher.dispatch());
+
+        Map<String, MailOutbox> rows = repo.findAll().stream()
+                .collect(Collectors.toMap(MailOutbox::getToAddress, Function.identity()));
+        MailOutbox retried = rows.get("reject@example.com");
+        assertEquals("SENT", rows.get("ok@example.com").getStatus());
+        assertEquals("PENDING", retried.getStatus());
+        assertEquals(1, retried.getAttempts());
+        assertNotNull(retried.getLastError());
+        assertTrue(retried.getNextAttemptAt().isAfter(LocalDateTime.now().plusSeconds(20)));
+        // not due yet
+        assertEquals(0, dispatcher.dispatch());
+    }
+
+    @Test
+    void rolledBackCallerQueuesNothing() {
+        tx.executeWithoutResult(status -> {
+            emailService.enqueue("a@example.com", "one", "<p>1</p>");
+            status.setRollbackOnly();
+        });
+
+        assertEquals(0, dispatcher.dispatch());
+        assertEquals(0, repo.count());
+        assertEquals(0, smtp.connections.get());
+    }
+
+    @Test
+    void backoffDoublesUpToTheCap() {
+        assertEquals(30, dispatcher.backoff(1).toSeconds());
+        assertEquals(60, dispatcher.backoff(2).toSeconds());
+        assertEquals(240, dispatcher.backoff(4).toSeconds());
+        assertEquals(3600, dispatcher.backoff(12).toSeconds());
+    }
+
+    /**
+     * Just enough SMTP for JavaMail: accepts everything except recipients containing "reject".
+     */
+    static final class SmtpStandIn implements AutoCloseable {
+
+        final ServerSocket server;
+        final AtomicInteger connections = new AtomicInteger();
+        final List<String> recipients = new CopyOnWriteArrayList<>();
+
+        private SmtpStandIn(ServerSocket server) {
+            this.server = server;
+        }
+
+        static SmtpStandIn start() {
+            try {
+                SmtpStandIn s = new SmtpStandIn(new ServerSocket(0));
+                Thread.ofPlatform().daemon().start(s::acceptLoop);
+                return s;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        void reset() {
+            connections.set(0);
+            recipients.clear();
+        }
+
+        private void acceptLoop() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread.ofPlatform().daemon().start(() -> session(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void session(Socket socket) {
+            try (socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 OutputStream out = socket.getOutputStream()) {
+                reply(out, "220 stand-in ESMTP");
+                List<String> accepted = new ArrayList<>();
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String cmd = line.toUpperCase();
+                    if (cmd.startsWith("EHLO") || cmd.startsWith("HELO")) {
+                        reply(out, "250 stand-in");
+                    } else if (cmd.startsWith("MAIL FROM")) {
+                        accepted.clear();
+                        reply(out, "250 OK");
+                    } else if (cmd.startsWith("RCPT TO")) {
+                        String address = line.substring(line.indexOf('<') + 1, line.indexOf('>'));
+                        if (address.contains("reject")) {
+                            reply(out, "550 5.1.1 No such user");
+                        } else {
+                            accepted.add(address);
+                            reply(out, "250 OK");
+                        }
+                    } else if (cmd.startsWith("DATA")) {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // message body is not inspected
+                        }
+                        recipients.addAll(accepted);
+                        reply(out, "250 OK queued");
+                    } else if (cmd.startsWith("QUIT")) {
+                        reply(out, "221 Bye");
+                        return;
+                    } else {
+                        // RSET, NOOP
+                        reply(out, "250 OK");
+                    }
+                }
+            } catch (IOException ignored) {
+                // client went away
+            }
+        }
+
+        private static void reply(OutputStream out, String line) throws IOException {
+            out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
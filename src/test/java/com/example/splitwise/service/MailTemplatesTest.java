@@ -0,0 +1,42 @@
+package com.example.splitwise.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailTemplatesTest {
+
+    private final MailTemplates templates = new MailTemplates();
+
+    @Test
+    void valuesAreEscapedAndEncoded() {
+        MailTemplates.Template t = templates.compile("payment-reminder", "title", "name", "creditor", "amount", "event");
+
+        String html = t.render("Reminder", "<b>Zoë</b>", "Tom & \"Jerry\"", "12.50", "Trip 🏔");
+
+        assertTrue(html.contains("&lt;b&gt;Zoë&lt;/b&gt;"));
+        assertTrue(html.contains("Tom &amp; &quot;Jerry&quot;"));
+        assertTrue(html.contains("Trip 🏔"));
+        assertFalse(html.contains("{{"));
+    }
+
+    @Test
+    void reusedBufferMatchesFreshRender() {
+        MailTemplates.Template t = templates.compile("payment-reminder", "title", "name", "creditor", "amount", "event");
+        MailTemplates.Buffer buffer = new MailTemplates.Buffer(16);
+
+        t.render(buffer, "Reminder", "a much longer name than the next one", "c", "1", "e");
+        buffer.reset();
+        t.render(buffer, "Reminder", "b", "c", "2", "e");
+
+        assertEquals(t.render("Reminder", "b", "c", "2", "e"), buffer.toString());
+    }
+
+    @Test
+    void parameterListMustMatchTemplate() {
+        assertThrows(IllegalStateException.class,
+                () -> templates.compile("payment-reminder", "title", "name", "creditor", "amount"));
+        assertThrows(IllegalStateException.class,
+                () -> templates.compile("payment-reminder", "title", "name", "creditor", "amount", "event", "extra"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.splitwise.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SettleUpEngineTest {
+
+    @Test
+    void chainCollapsesToOneTransfer() {
+        // 0 owes 1 10.00, 1 owes 2 10.00  ->  0 pays 2 directly
+        SettleUpEngine.Transfers t = SettleUpEngine.simplify(3,
+                new int[]{0, 1}, new int[]{1, 2}, new long[]{1000, 1000}, 2);
+
+        assertEquals(1, t.size);
+        assertEquals(0, t.from[0]);
+        assertEquals(2, t.to[0]);
+        assertEquals(1000, t.amount[0]);
+    }
+
+    @Test
+    void balancedGroupNeedsNoTransfers() {
+        SettleUpEngine.Transfers t = SettleUpEngine.simplify(2,
+                new int[]{0, 1}, new int[]{1, 0}, new long[]{500, 500}, 2);
+
+        assertEquals(0, t.size);
+    }
+
+    @Test
+    void randomGroupsKeepNetPositionsWithAtMostNMinusOneTransfers() {
+        SplittableRandom rnd = new SplittableRandom(7);
+        int n = 500;
+        int m = 4000;
+        int[] debtor = new int[m];
+        int[] creditor = new int[m];
+        long[] cents = new long[m];
+        long[] expected = new long[n];
+        for (int i = 0; i < m; i++) {
+            debtor[i] = rnd.nextInt(n);
+            creditor[i] = rnd.nextInt(n);
+            cents[i] = 1 + rnd.nextLong(10_000);
+            expected[debtor[i]] -= cents[i];
+            expected[creditor[i]] += cents[i];
+        }
+
+        SettleUpEngine.Transfers t = SettleUpEngine.simplify(n, debtor, creditor, cents, m);
+
+        long[] actual = new long[n];
+        for (int i = 0; i < t.size; i++) {
+            assertTrue(t.amount[i] > 0);
+            actual[t.from[i]] -= t.amount[i];
+            actual[t.to[i]] += t.amount[i];
+        }
+        assertArrayEquals(expected, actual);
+        assertTrue(t.size <= n - 1);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.model.Debitor;
+import com.example.splitwise.model.Event;
+import com.example.splitwise.model.User;
+import com.example.splitwise.repo.EventRepo;
+import com.example.splitwise.repo.UserRepo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class UserServiceTest {
+
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private EventService eventService;
+    @Autowired
+    private DebitorService debitorService;
+    @Autowired
+    private BalanceService balanceService;
+    @Autowired
+    private UserRepo userRepo;
+    @Autowired
+    private EventRepo eventRepo;
+    @Autowired
+    private TransactionTemplate tx;
+
+    private final List<Long> created = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        for (Long id : created) {
+            if (userService.existsById(id)) tx.executeWithoutResult(s -> userService.deleteUser(id));
+        }
+    }
+
+    @Test
+    void deletingADebtorUpdatesTheCreatorsEvent() {
+        Long creator = user("creator");
+        Long debtor = user("debtor");
+        Long other = user("other");
+
+        Event event = tx.execute(s -> {
+            Event e = new Event();
+            e.setTitle("dinner");
+            e.setTotal(new BigDecimal("90.00"));
+            e.setCreator(userRepo.getReferenceById(creator));
+            return eventService.createEvent(e, List.of(split(debtor, "45.00"), split(other, "45.00")));
+        });
+        Long debtorSplit = event.getSplits().stream()
+                .filter(d -> d.getUser().getId().equals(debtor)).findFirst().orElseThrow().getId();
+        // part paid, recorded on the split (a payment's transaction row would block the delete)
+        Debitor paid = new Debitor();
+        paid.setAmountPaid(new BigDecimal("20.00"));
+        debitorService.updateDebitor(debtorSplit, paid);
+
+        tx.executeWithoutResult(s -> userService.deleteUser(debtor));
+
+        // only the other participant's unpaid split is left on the event
+        Event after = eventRepo.findById(event.getId()).orElseThrow();
+        assertEquals(1, after.getSplitCount());
+        assertEquals(0, after.getSettledCount());
+        assertEquals(0, after.getPaidTotal().compareTo(BigDecimal.ZERO));
+        assertEquals(0, after.getOutstandingTotal().compareTo(new BigDecimal("45.00")));
+
+        BigDecimal owedToCreator = tx.execute(s -> balanceService.getBalance(creator).getOwedToYou());
+        assertEquals(0, owedToCreator.compareTo(new BigDecimal("90.00")));
+    }
+
+    private Long user(String name) {
+        User u = new User();
+        u.setEmail(name + "-" + System.nanoTime() + "@example.com");
+        u.setPassword("not-a-hash");
+        Long id = tx.execute(s -> userRepo.save(u).getId());
+        created.add(id);
+        return id;
+    }
+
+    private static Debitor split(Long userId, String amount) {
+        User u = new User();
+        u.setId(userId);
+        Debitor d = new Debitor();
+        d.setUser(u);
+        d.setDebAmount(new BigDecimal(amount));
+        return d;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.splitwise.service;
+
+import com.example.splitwise.repo.UserRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VerifiedTokenCacheTest {
+
+    private static final String EMAIL = "alice@example.com";
+
+    private final JwtService jwtService = new JwtService("test-secret-that-is-at-least-256-bits-long-0123456789", 60_000);
+    private final MyUserDetailsService userDetailsService = mock(MyUserDetailsService.class);
+    private final UserRepo userRepo = mock(UserRepo.class);
+
+    private VerifiedTokenCache cache() {
+        return new VerifiedTokenCache(jwtService, userDetailsService, userRepo, new SimpleMeterRegistry(), 100, 30);
+    }
+
+    @Test
+    void tokenWithoutVersionIsRevokedByAPasswordChange() {
+        // issued before tokens carried uid / ver
+        String legacy = jwtService.generateToken(EMAIL);
+        when(userDetailsService.loadUserByUsername(EMAIL))
+                .thenReturn(User.withUsername(EMAIL).password("hash").authorities("USER").build());
+        when(userRepo.findIdByEmail(EMAIL)).thenReturn(Optional.of(7L));
+
+        when(userRepo.findTokenVersionById(7L)).thenReturn(Optional.of(0));
+        assertNotNull(cache().authenticate(legacy));
+
+        // the password has been changed once since
+        when(userRepo.findTokenVersionById(7L)).thenReturn(Optional.of(1));
+        assertNull(cache().authenticate(legacy));
+    }
+}